@@ -0,0 +1,80 @@
+package searchengine.services;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбиение текста страницы на слова с подсчётом повторов: прежний конвейер toLowerCase - replaceAll - split
+ * со счётчиками в HashMap против однопроходного {@link TokenCounts}. Морфология не участвует, сравнивается
+ * только токенизатор.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenizerBenchmark {
+    private static final String[] SYLLABLES = {"ка", "ро", "ми", "не", "ст", "по", "ла", "ву", "де", "за", "ко",
+            "ри", "тел", "ный", "ова", "ение", "ть", "ся", "пре", "об"};
+
+    /**
+     * Размер текста страницы в символах
+     */
+    @Param({"4000", "64000"})
+    private int length;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        String[] vocabulary = new String[2000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int j = 0, syllables = 1 + random.nextInt(4); j < syllables; j++) {
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            vocabulary[i] = word.toString();
+        }
+        StringBuilder builder = new StringBuilder(length + 32);
+        while (builder.length() < length) {
+            int chance = random.nextInt(100);
+            String word = vocabulary[(int) Math.min(vocabulary.length - 1, Math.abs(random.nextGaussian()) * 300)];
+            if (chance < 10) {
+                builder.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+            } else if (chance < 14) {
+                builder.append(random.nextInt(10_000));
+            } else if (chance < 17) {
+                builder.append("page-").append(random.nextInt(100));
+            } else {
+                builder.append(word);
+            }
+            builder.append(chance % 9 == 0 ? ", " : chance % 13 == 0 ? ". " : " ");
+        }
+        text = builder.toString();
+    }
+
+    @Benchmark
+    public Map<String, Integer> regexSplit() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String word : text.toLowerCase(Locale.ROOT).replaceAll("([^а-я\\s])", " ").trim().split("\\s+")) {
+            if (!word.isBlank()) {
+                counts.merge(word, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public int tokenCounts() {
+        int[] total = new int[1];
+        TokenCounts.of(text).forEach((word, count) -> total[0] += count);
+        return total[0];
+    }
+}
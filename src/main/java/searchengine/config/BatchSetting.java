@@ -0,0 +1,17 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "batch-setting")
+public class BatchSetting {
+    int pagesPerBatch = 50;
+    long flushInterval = 1000;
+    int queueCapacity = 500;
+    int jdbcBatchSize = 1000;
+}
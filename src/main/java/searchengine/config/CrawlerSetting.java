@@ -0,0 +1,23 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "crawler-setting")
+public class CrawlerSetting {
+    String mode = "forkjoin";
+    int maxConcurrentFetches = 64;
+    int indexThreads = 0;
+    int indexQueueCapacity = 256;
+    long politenessDelay = 0;
+    boolean bloomFilter = false;
+    long expectedUrls = 1_000_000;
+    double bloomFalsePositiveRate = 0.001;
+    String checkpointPath = "checkpoints";
+    boolean storeHtml = true;
+}
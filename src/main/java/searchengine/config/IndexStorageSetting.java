@@ -0,0 +1,17 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "index-storage")
+public class IndexStorageSetting {
+    String type = "mysql";
+    String path = "index";
+    int maxSegments = 10;
+    int maxSegmentMb = 1024;
+}
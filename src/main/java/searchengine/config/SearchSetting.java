@@ -0,0 +1,28 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "search-setting")
+public class SearchSetting {
+    long cacheMaxPages = 1_000_000;
+    long cacheTtl = 600;
+    int searchThreads = 0;
+    int searchQueueCapacity = 32;
+    long searchTimeout = 3000;
+    long maxSearchTimeout = 10000;
+    int maxResultWindow = 10000;
+    int siteSearchThreads = 0;
+    int snippetThreads = 0;
+    int snippetQueueCapacity = 256;
+    long snippetTimeout = 300;
+    String scoring = "bm25";
+    float bm25K1 = 1.2F;
+    float bm25B = 0.75F;
+    int spellingMaxEdits = 2;
+}
@@ -0,0 +1,22 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "shard-setting")
+public class ShardSetting {
+    List<String> shards = new ArrayList<>();
+    int connectTimeout = 1000;
+    int readTimeout = 15000;
+    int threads = 0;
+    int queueCapacity = 64;
+    long statisticsTimeout = 3000;
+}
@@ -1,6 +1,7 @@
 package searchengine.controllers;
 
 import com.github.tsohr.JSONObject;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -9,6 +10,10 @@ import searchengine.dto.statistics.StatisticsResponse;
 import searchengine.services.interfaces.IndexingService;
 import searchengine.services.interfaces.SearchService;
 import searchengine.services.interfaces.StatisticsService;
+import searchengine.services.shard.ShardCoordinator;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api")
@@ -19,20 +24,29 @@ public class ApiController {
 
     private final SearchService searchService;
 
-    public ApiController(StatisticsService statisticsService, IndexingService indexingService, SearchService searchService) {
+    private final ShardCoordinator shardCoordinator;
+
+    public ApiController(StatisticsService statisticsService, IndexingService indexingService,
+                         SearchService searchService, ShardCoordinator shardCoordinator) {
         this.statisticsService = statisticsService;
         this.indexingService = indexingService;
         this.searchService = searchService;
+        this.shardCoordinator = shardCoordinator;
     }
 
+    /**
+     * В режиме координатора - сумма статистики шардов
+     */
     @GetMapping("/statistics")
     public ResponseEntity<StatisticsResponse> statistics() {
-        return ResponseEntity.ok(statisticsService.getStatistics());
+        return ResponseEntity.ok(shardCoordinator.isEnabled() ? shardCoordinator.getStatistics()
+                : statisticsService.getStatistics());
     }
 
     @GetMapping("/startIndexing")
-    public ResponseEntity<IndexingResponse> startIndexing() {
-        return ResponseEntity.ok(indexingService.startIndexing());
+    public ResponseEntity<IndexingResponse> startIndexing(@RequestParam(defaultValue = "false") boolean resume,
+                                                          @RequestParam(defaultValue = "false") boolean incremental) {
+        return ResponseEntity.ok(indexingService.startIndexing(resume, incremental));
     }
 
     @GetMapping("/stopIndexing")
@@ -45,19 +59,51 @@ public class ApiController {
         return ResponseEntity.ok(indexingService.indexPage(url));
     }
 
+    /**
+     * Поиск выполняется в отдельном пуле, поток Tomcat освобождается до готовности ответа.
+     * Если очередь поисковых запросов заполнена, сразу отвечает 503. В режиме координатора запрос
+     * рассылается шардам.
+     *
+     * @param timeout срок выполнения запроса в мс, 0 - по умолчанию из настроек
+     */
     @GetMapping("/search")
-    public ResponseEntity<?> search(@RequestParam(required = false) String query,
-                                    @RequestParam(required = false) String site,
-                                    @RequestParam(defaultValue = "0") int offset,
-                                    @RequestParam(defaultValue = "20") int limit) {
+    public CompletableFuture<ResponseEntity<?>> search(@RequestParam(required = false) String query,
+                                                       @RequestParam(required = false) String site,
+                                                       @RequestParam(defaultValue = "0") int offset,
+                                                       @RequestParam(defaultValue = "20") int limit,
+                                                       @RequestParam(defaultValue = "0") long timeout) {
 
         JSONObject response = new JSONObject();
         if (query == null || query.isBlank()) {
             response.put("result", false);
             response.put("error", "Задан пустой поисковый запрос");
+            return CompletableFuture.completedFuture(new ResponseEntity<>(response.toString(), HttpStatus.BAD_REQUEST));
+        }
+        try {
+            CompletableFuture<?> result = shardCoordinator.isEnabled()
+                    ? shardCoordinator.search(query, site, offset, limit, timeout)
+                    : searchService.search(query, site, offset, limit, timeout);
+            return result.thenApply(ResponseEntity::ok);
+        } catch (RejectedExecutionException e) {
+            response.put("result", false);
+            response.put("error", "Сервер перегружен, повторите запрос позже");
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1").body(response.toString()));
+        }
+    }
+
+    @GetMapping("/suggest")
+    public ResponseEntity<?> suggest(@RequestParam(required = false) String prefix,
+                                     @RequestParam(required = false) String site,
+                                     @RequestParam(defaultValue = "10") int limit) {
+
+        if (prefix == null || prefix.isBlank()) {
+            JSONObject response = new JSONObject();
+            response.put("result", false);
+            response.put("error", "Задан пустой префикс");
             return new ResponseEntity<>(response.toString(), HttpStatus.BAD_REQUEST);
         }
-        return ResponseEntity.ok(searchService.search(query, site, offset, limit));
+        return ResponseEntity.ok(searchService.suggest(prefix, site, limit));
     }
 
     @RequestMapping("/*")
@@ -0,0 +1,69 @@
+package searchengine.controllers;
+
+import com.github.tsohr.JSONObject;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import searchengine.dto.search.ShardPagesRequest;
+import searchengine.dto.search.ShardSearchRequest;
+import searchengine.dto.search.ShardStatsResponse;
+import searchengine.dto.statistics.StatisticsResponse;
+import searchengine.services.interfaces.SearchService;
+import searchengine.services.interfaces.StatisticsService;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * API шарда для координатора {@link searchengine.services.shard.ShardCoordinator}: всегда работает
+ * с собственным индексом узла
+ */
+@RestController
+@RequestMapping("/api/shard")
+public class ShardController {
+
+    private final StatisticsService statisticsService;
+    private final SearchService searchService;
+
+    public ShardController(StatisticsService statisticsService, SearchService searchService) {
+        this.statisticsService = statisticsService;
+        this.searchService = searchService;
+    }
+
+    @GetMapping("/statistics")
+    public ResponseEntity<StatisticsResponse> statistics() {
+        return ResponseEntity.ok(statisticsService.getStatistics());
+    }
+
+    @PostMapping("/stats")
+    public ResponseEntity<ShardStatsResponse> stats(@RequestBody ShardSearchRequest request) {
+        return ResponseEntity.ok(searchService.shardStats(request.getQuery(), request.getSite()));
+    }
+
+    @PostMapping("/search")
+    public CompletableFuture<ResponseEntity<?>> search(@RequestBody ShardSearchRequest request) {
+        try {
+            return searchService.shardSearch(request).thenApply(ResponseEntity::ok);
+        } catch (RejectedExecutionException e) {
+            return overloaded();
+        }
+    }
+
+    @PostMapping("/pages")
+    public CompletableFuture<ResponseEntity<?>> pages(@RequestBody ShardPagesRequest request) {
+        try {
+            return searchService.shardPages(request).thenApply(ResponseEntity::ok);
+        } catch (RejectedExecutionException e) {
+            return overloaded();
+        }
+    }
+
+    private static CompletableFuture<ResponseEntity<?>> overloaded() {
+        JSONObject response = new JSONObject();
+        response.put("result", false);
+        response.put("error", "Сервер перегружен, повторите запрос позже");
+        return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1").body(response.toString()));
+    }
+}
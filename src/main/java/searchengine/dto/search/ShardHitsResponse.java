@@ -0,0 +1,22 @@
+package searchengine.dto.search;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Ответ шарда на {@link ShardSearchRequest}: id лучших страниц и их ненормированные оценки по убыванию оценки.
+ * Сниппеты строятся потом только для страниц, попавших в выдачу, запросом {@link ShardPagesRequest}.
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+public class ShardHitsResponse extends SearchResponse {
+    private int count;
+    private int[] pageIds;
+    private float[] scores;
+    /**
+     * true, если срок запроса истёк и проверены не все страницы
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean partial;
+}
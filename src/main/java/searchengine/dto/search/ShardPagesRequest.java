@@ -0,0 +1,18 @@
+package searchengine.dto.search;
+
+import lombok.Data;
+
+/**
+ * Запрос координатора к шарду: результаты поиска для страниц шарда, попавших в выдачу, в том же порядке.
+ * В ответе {@link SuccessResponse} relevance - оценка страницы из scores.
+ */
+@Data
+public class ShardPagesRequest {
+    private String query;
+    private int[] pageIds;
+    private float[] scores;
+    /**
+     * Срок выполнения в мс
+     */
+    private long timeout;
+}
@@ -0,0 +1,23 @@
+package searchengine.dto.search;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * Запрос координатора к шарду: лучшие limit страниц запроса, оценённые по статистике всех шардов.
+ * Ответ - {@link ShardHitsResponse}.
+ */
+@Data
+public class ShardSearchRequest {
+    private String query;
+    private String site;
+    private int limit;
+    /**
+     * Срок выполнения в мс
+     */
+    private long timeout;
+    private int pageCount;
+    private long totalLength;
+    private Map<String, Integer> documentFrequencies;
+}
@@ -0,0 +1,21 @@
+package searchengine.dto.search;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.util.Map;
+
+/**
+ * Статистика шарда для оценки запроса: координатор складывает её по всем шардам и рассылает обратно
+ * в {@link ShardSearchRequest}, чтобы оценки страниц разных шардов были сравнимы
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+public class ShardStatsResponse extends SearchResponse {
+    private int pageCount;
+    private long totalLength;
+    /**
+     * Лемма запроса -> на скольких страницах шарда она есть
+     */
+    private Map<String, Integer> documentFrequencies;
+}
@@ -1,5 +1,6 @@
 package searchengine.dto.search;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
@@ -10,4 +11,19 @@ import java.util.List;
 public class SuccessResponse extends SearchResponse{
     private int count;
     private List<DetailedSearchItem> data;
+    /**
+     * Запрос с исправленными опечатками, по которому найдены data, если по исходному ничего не нашлось
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String correctedQuery;
+    /**
+     * Запрос с исправленными опечатками, если по исходному что-то нашлось, но в нём есть неизвестные слова
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String suggestion;
+    /**
+     * true, если срок запроса истёк: проверены не все страницы или сниппеты не построены
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean partial;
 }
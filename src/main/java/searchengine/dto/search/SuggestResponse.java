@@ -0,0 +1,12 @@
+package searchengine.dto.search;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.util.List;
+
+@Data
+@EqualsAndHashCode(callSuper = false)
+public class SuggestResponse extends SearchResponse {
+    private List<String> suggestions;
+}
@@ -24,6 +24,12 @@ public class LemmaEntity {
     @Column(nullable = false)
     private int frequency;
 
+    /**
+     * Наибольший rank леммы на страницах сайта - для оценки сверху вклада леммы при поиске.
+     * null - неизвестен (леммы, проиндексированные до появления столбца)
+     */
+    private Integer maxRank;
+
     @OneToMany(mappedBy = "lemma", cascade = CascadeType.ALL)
     private List<IndexEntity> indexEntities;
 }
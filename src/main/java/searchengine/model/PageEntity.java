@@ -24,8 +24,23 @@ public class PageEntity {
     @Column(nullable = false)
     private int code;
 
-    @Column(columnDefinition = "MEDIUMTEXT NOT NULL")
-    private String content;
+    private String etag;
+
+    private String lastModified;
+
+    private Long contentHash;
+
+    /**
+     * Длина страницы в леммах - сумма количеств всех лемм
+     */
+    private Integer length;
+
+    /**
+     * Леммы страницы с количеством, {@link searchengine.services.LemmaCounts#toBytes()}
+     */
+    @Lob
+    @Column(columnDefinition = "MEDIUMBLOB")
+    private byte[] lemmaVector;
 
     @OneToMany(mappedBy = "page", cascade = CascadeType.ALL)
     private List<IndexEntity> indexEntities;
@@ -0,0 +1,25 @@
+package searchengine.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.persistence.*;
+
+/**
+ * HTML страницы. Хранится, только если включено crawler-setting.storeHtml: нужен для условных запросов
+ * при повторном обходе, поиск использует текст из page_text.
+ */
+@Entity(name = "page_html")
+@Table(indexes = @Index(columnList = "site_id"))
+@Getter
+@Setter
+public class PageHtmlEntity {
+    @Id
+    private int pageId;
+
+    @Column(nullable = false)
+    private int siteId;
+
+    @Column(columnDefinition = "MEDIUMTEXT NOT NULL")
+    private String content;
+}
@@ -0,0 +1,34 @@
+package searchengine.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.persistence.*;
+
+/**
+ * Заголовок и текст страницы, извлечённые при индексации, для выдачи результатов поиска.
+ * Текст хранится сжатым, {@link searchengine.services.TextCompressor}.
+ */
+@Entity(name = "page_text")
+@Table(indexes = @Index(columnList = "site_id"))
+@Getter
+@Setter
+public class PageTextEntity {
+    @Id
+    private int pageId;
+
+    @Column(nullable = false)
+    private int siteId;
+
+    @Column(columnDefinition = "TEXT")
+    private String title;
+
+    @Column(columnDefinition = "MEDIUMBLOB NOT NULL")
+    private byte[] text;
+
+    /**
+     * {@link searchengine.services.search.PagePositions} текста
+     */
+    @Column(columnDefinition = "MEDIUMBLOB")
+    private byte[] positions;
+}
@@ -0,0 +1,142 @@
+package searchengine.repositories;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.*;
+
+@Repository
+@RequiredArgsConstructor
+public class IndexBatchRepository {
+    private static final int ROWS_PER_STATEMENT = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Добавляет леммы сайта одним многострочным INSERT, для уже существующих лемм увеличивает frequency
+     * и max_rank, если он известен.
+     *
+     * @param siteId          id сайта
+     * @param lemmaPageCounts ключ - лемма, значение - на сколько страниц пачки она встретилась
+     * @param maxRanks        наибольший rank лемм на страницах пачки
+     */
+    public void upsertLemmas(int siteId, SortedMap<String, Integer> lemmaPageCounts, Map<String, Integer> maxRanks) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(lemmaPageCounts.entrySet());
+        for (int from = 0; from < entries.size(); from += ROWS_PER_STATEMENT) {
+            List<Map.Entry<String, Integer>> chunk = entries.subList(from, Math.min(from + ROWS_PER_STATEMENT, entries.size()));
+            StringBuilder sql = new StringBuilder("INSERT INTO lemma (site_id, lemma, frequency, max_rank) VALUES ");
+            Object[] args = new Object[chunk.size() * 4];
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : chunk) {
+                sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+                args[i++] = siteId;
+                args[i++] = entry.getKey();
+                args[i++] = entry.getValue();
+                args[i++] = maxRanks.getOrDefault(entry.getKey(), 0);
+            }
+            sql.append(" ON DUPLICATE KEY UPDATE frequency = frequency + VALUES(frequency),"
+                    + " max_rank = GREATEST(max_rank, VALUES(max_rank))");
+            jdbcTemplate.update(sql.toString(), args);
+        }
+    }
+
+    /**
+     * Поднимает известный max_rank лемм; неизвестный (NULL) не меняется.
+     *
+     * @param maxRanks ключ - id леммы, значение - новый наибольший rank
+     */
+    public void raiseMaxRanks(SortedMap<Integer, Integer> maxRanks, int batchSize) {
+        jdbcTemplate.batchUpdate("UPDATE lemma SET max_rank = ? WHERE id = ? AND max_rank < ?",
+                new ArrayList<>(maxRanks.entrySet()), batchSize, (ps, entry) -> {
+                    ps.setInt(1, entry.getValue());
+                    ps.setInt(2, entry.getKey());
+                    ps.setInt(3, entry.getValue());
+                });
+    }
+
+    /**
+     * Уменьшает frequency лемм одним пакетом запросов, frequency не становится меньше нуля.
+     *
+     * @param lemmaPageCounts ключ - id леммы, значение - со скольких страниц она исчезла
+     */
+    public void decrementLemmas(SortedMap<Integer, Integer> lemmaPageCounts, int batchSize) {
+        jdbcTemplate.batchUpdate("UPDATE lemma SET frequency = GREATEST(frequency - ?, 0) WHERE id = ?",
+                new ArrayList<>(lemmaPageCounts.entrySet()), batchSize, (ps, entry) -> {
+                    ps.setInt(1, entry.getValue());
+                    ps.setInt(2, entry.getKey());
+                });
+    }
+
+    public Map<String, Integer> findLemmaIds(int siteId, Collection<String> lemmas) {
+        Map<String, Integer> lemmaIds = new HashMap<>();
+        List<String> lemmaList = new ArrayList<>(lemmas);
+        for (int from = 0; from < lemmaList.size(); from += ROWS_PER_STATEMENT) {
+            List<String> chunk = lemmaList.subList(from, Math.min(from + ROWS_PER_STATEMENT, lemmaList.size()));
+            String sql = "SELECT id, lemma FROM lemma WHERE site_id = ? AND lemma IN ("
+                    + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            Object[] args = new Object[chunk.size() + 1];
+            args[0] = siteId;
+            for (int i = 0; i < chunk.size(); i++) {
+                args[i + 1] = chunk.get(i);
+            }
+            jdbcTemplate.query(sql, rs -> {
+                lemmaIds.put(rs.getString("lemma"), rs.getInt("id"));
+            }, args);
+        }
+        return lemmaIds;
+    }
+
+    public void insertIndexes(List<IndexRow> rows, int batchSize) {
+        jdbcTemplate.batchUpdate("INSERT INTO `index` (page_id, lemma_id, `rank`) VALUES (?, ?, ?)",
+                rows, batchSize, (ps, row) -> {
+                    ps.setInt(1, row.pageId());
+                    ps.setInt(2, row.lemmaId());
+                    ps.setFloat(3, row.rank());
+                });
+    }
+
+    /**
+     * Добавляет строки индекса, у уже существующих строк (page_id, lemma_id) заменяет rank.
+     */
+    public void upsertIndexes(List<IndexRow> rows, int batchSize) {
+        jdbcTemplate.batchUpdate("INSERT INTO `index` (page_id, lemma_id, `rank`) VALUES (?, ?, ?)"
+                        + " ON DUPLICATE KEY UPDATE `rank` = VALUES(`rank`)",
+                rows, batchSize, (ps, row) -> {
+                    ps.setInt(1, row.pageId());
+                    ps.setInt(2, row.lemmaId());
+                    ps.setFloat(3, row.rank());
+                });
+    }
+
+    public void deleteIndexes(int pageId, List<Integer> lemmaIds) {
+        for (int from = 0; from < lemmaIds.size(); from += ROWS_PER_STATEMENT) {
+            List<Integer> chunk = lemmaIds.subList(from, Math.min(from + ROWS_PER_STATEMENT, lemmaIds.size()));
+            String sql = "DELETE FROM `index` WHERE page_id = ? AND lemma_id IN ("
+                    + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            Object[] args = new Object[chunk.size() + 1];
+            args[0] = pageId;
+            for (int i = 0; i < chunk.size(); i++) {
+                args[i + 1] = chunk.get(i);
+            }
+            jdbcTemplate.update(sql, args);
+        }
+    }
+
+    /**
+     * Отмечает страницы, леммы которых не удалось записать: content_hash сбрасывается, чтобы повторный обход
+     * проиндексировал их заново, lemma_vector заменяется леммами, которые на самом деле есть в индексе.
+     *
+     * @param lemmaVectors ключ - id страницы, значение - {@link searchengine.services.LemmaCounts#toBytes()}
+     */
+    public void resetPages(SortedMap<Integer, byte[]> lemmaVectors, int batchSize) {
+        jdbcTemplate.batchUpdate("UPDATE `page` SET content_hash = NULL, lemma_vector = ? WHERE id = ?",
+                new ArrayList<>(lemmaVectors.entrySet()), batchSize, (ps, entry) -> {
+                    ps.setBytes(1, entry.getValue());
+                    ps.setInt(2, entry.getKey());
+                });
+    }
+
+    public record IndexRow(int pageId, int lemmaId, float rank) {
+    }
+}
@@ -0,0 +1,31 @@
+package searchengine.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import searchengine.model.PageHtmlEntity;
+
+@Repository
+@Transactional()
+public interface PageHtmlRepository extends JpaRepository<PageHtmlEntity, Integer> {
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query(value = "INSERT INTO page_html (page_id, site_id, content) VALUES (:pageId, :siteId, :content)"
+            + " ON DUPLICATE KEY UPDATE content = VALUES(content)", nativeQuery = true)
+    void upsert(int pageId, int siteId, String content);
+
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query(value = "DELETE FROM page_html WHERE page_id = :pageId", nativeQuery = true)
+    void deleteByPage(int pageId);
+
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query(value = "DELETE FROM page_html WHERE site_id = :siteId", nativeQuery = true)
+    void deleteBySite(int siteId);
+
+    /**
+     * @return HTML страницы или null, если он не сохранялся
+     */
+    @Query(value = "SELECT content FROM page_html WHERE page_id = :pageId", nativeQuery = true)
+    String findContent(int pageId);
+}
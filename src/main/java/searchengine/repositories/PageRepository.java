@@ -8,6 +8,8 @@ import org.springframework.transaction.annotation.Transactional;
 import searchengine.model.PageEntity;
 import searchengine.model.SiteEntity;
 
+import java.util.List;
+
 @Repository
 @Transactional()
 public interface PageRepository extends JpaRepository<PageEntity, Integer> {
@@ -18,4 +20,7 @@ public interface PageRepository extends JpaRepository<PageEntity, Integer> {
     boolean existsPageEntityByPathAndSite(String path, SiteEntity site);
 
     int countPageEntitiesBySite(SiteEntity site);
+
+    @Query(value = "SELECT path FROM `page` WHERE site_id = :siteId", nativeQuery = true)
+    List<String> findPathsBySite(int siteId);
 }
@@ -0,0 +1,63 @@
+package searchengine.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import searchengine.model.PageTextEntity;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+@Transactional()
+public interface PageTextRepository extends JpaRepository<PageTextEntity, Integer> {
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query(value = "INSERT INTO page_text (page_id, site_id, title, text, positions)"
+            + " VALUES (:pageId, :siteId, :title, :text, :positions) ON DUPLICATE KEY UPDATE"
+            + " title = VALUES(title), text = VALUES(text), positions = VALUES(positions)", nativeQuery = true)
+    void upsert(int pageId, int siteId, String title, byte[] text, byte[] positions);
+
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query(value = "DELETE FROM page_text WHERE site_id = :siteId", nativeQuery = true)
+    void deleteBySite(int siteId);
+
+    /**
+     * Данные страниц для выдачи без загрузки их HTML
+     */
+    @Query(value = "SELECT t.page_id AS pageId, t.site_id AS siteId, p.path AS path, t.title AS title,"
+            + " t.text AS text, t.positions AS positions FROM page_text t JOIN page p ON p.id = t.page_id"
+            + " WHERE t.page_id IN (:pageIds)", nativeQuery = true)
+    List<PageSummary> findSummaries(Collection<Integer> pageIds);
+
+    /**
+     * Позиционные индексы страниц, текст - только у страниц без позиционного индекса
+     */
+    @Query(value = "SELECT page_id AS pageId, positions AS positions,"
+            + " CASE WHEN positions IS NULL THEN text END AS text FROM page_text WHERE page_id IN (:pageIds)",
+            nativeQuery = true)
+    List<PagePositionsRow> findPositions(Collection<Integer> pageIds);
+
+    interface PageSummary {
+        int getPageId();
+
+        int getSiteId();
+
+        String getPath();
+
+        String getTitle();
+
+        byte[] getText();
+
+        byte[] getPositions();
+    }
+
+    interface PagePositionsRow {
+        int getPageId();
+
+        byte[] getPositions();
+
+        byte[] getText();
+    }
+}
@@ -0,0 +1,60 @@
+package searchengine.repositories;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import searchengine.services.search.PostingList;
+import searchengine.services.search.PostingListBuilder;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collections;
+
+@Repository
+@RequiredArgsConstructor
+public class PostingRepository {
+    private static final int PAGES_PER_STATEMENT = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * @param expectedSize ожидаемая длина списка (frequency леммы), используется для начального размера массивов
+     * @return все страницы леммы по возрастанию id без ограничения количества
+     */
+    public PostingList findByLemma(int lemmaId, int expectedSize) {
+        PostingListBuilder builder = new PostingListBuilder(expectedSize);
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT page_id, `rank` FROM `index` WHERE lemma_id = ? ORDER BY page_id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setInt(1, lemmaId);
+            ps.setFetchSize(Integer.MIN_VALUE);
+            return ps;
+        }, rs -> {
+            builder.add(rs.getInt(1), rs.getFloat(2));
+        });
+        return builder.build();
+    }
+
+    /**
+     * @param pageIds id страниц по возрастанию
+     * @return страницы из pageIds, на которых есть лемма
+     */
+    public PostingList findByLemmaAndPages(int lemmaId, int[] pageIds) {
+        PostingListBuilder builder = new PostingListBuilder(pageIds.length);
+        for (int from = 0; from < pageIds.length; from += PAGES_PER_STATEMENT) {
+            int to = Math.min(from + PAGES_PER_STATEMENT, pageIds.length);
+            String sql = "SELECT page_id, `rank` FROM `index` WHERE lemma_id = ? AND page_id IN ("
+                    + String.join(", ", Collections.nCopies(to - from, "?")) + ") ORDER BY page_id";
+            Object[] args = new Object[to - from + 1];
+            args[0] = lemmaId;
+            for (int i = from; i < to; i++) {
+                args[i - from + 1] = pageIds[i];
+            }
+            jdbcTemplate.query(sql, rs -> {
+                builder.add(rs.getInt(1), rs.getFloat(2));
+            }, args);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,111 @@
+package searchengine.services;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Статистика страниц для ранжирования: длина каждой страницы в леммах (массив по id страницы) и число
+ * страниц и суммарная длина по сайтам. Загружается при старте из таблицы page и обновляется записью пачек
+ * индекса, изменения делает только один поток.
+ * <p>
+ * Учтённость страницы определяется по сайту, к которому она отнесена, а не по длине: страница длиной 0 тоже
+ * учтена, и её повторная индексация не увеличивает число страниц сайта.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+@Log4j2
+public class DocumentStats {
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<Integer, SiteStats> sites = new ConcurrentHashMap<>();
+    private volatile int[] lengths = new int[1024];
+    /**
+     * id страницы -> id её сайта, 0 - страница не учтена (id сайтов в MySQL начинаются с 1)
+     */
+    private int[] pageSites = new int[1024];
+
+    public DocumentStats(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void load() {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT id, site_id, length FROM page WHERE length IS NOT NULL",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(Integer.MIN_VALUE);
+            return ps;
+        }, rs -> {
+            setLength(rs.getInt("site_id"), rs.getInt("id"), rs.getInt("length"));
+        });
+        log.info("Document statistics loaded for {} sites", sites.size());
+    }
+
+    /**
+     * @return длина страницы в леммах или 0, если она неизвестна
+     */
+    public int getLength(int pageId) {
+        int[] current = lengths;
+        return pageId < current.length ? current[pageId] : 0;
+    }
+
+    public SiteStats getSite(int siteId) {
+        SiteStats stats = sites.get(siteId);
+        return stats == null ? SiteStats.EMPTY : stats;
+    }
+
+    public synchronized void setLength(int siteId, int pageId, int length) {
+        if (pageId >= lengths.length) {
+            int capacity = Math.max(lengths.length * 2, pageId + 1);
+            lengths = Arrays.copyOf(lengths, capacity);
+            pageSites = Arrays.copyOf(pageSites, capacity);
+        }
+        int previousSite = pageSites[pageId];
+        int previous = lengths[pageId];
+        if (previousSite != 0 && previousSite != siteId) {
+            SiteStats stats = getSite(previousSite);
+            sites.put(previousSite, new SiteStats(stats.pageCount() - 1, stats.totalLength() - previous));
+        }
+        lengths[pageId] = length;
+        pageSites[pageId] = siteId;
+        SiteStats stats = getSite(siteId);
+        sites.put(siteId, previousSite == siteId
+                ? new SiteStats(stats.pageCount(), stats.totalLength() + length - previous)
+                : new SiteStats(stats.pageCount() + 1, stats.totalLength() + length));
+    }
+
+    /**
+     * Забывает сайт и длины его страниц, чтобы id страниц после переиндексации сайта считались новыми
+     */
+    public synchronized void removeSite(int siteId) {
+        int[] current = lengths;
+        for (int pageId = 0; pageId < pageSites.length; pageId++) {
+            if (pageSites[pageId] == siteId) {
+                pageSites[pageId] = 0;
+                current[pageId] = 0;
+            }
+        }
+        sites.remove(siteId);
+    }
+
+    /**
+     * @param pageCount   число страниц сайта с известной длиной
+     * @param totalLength их суммарная длина в леммах
+     */
+    public record SiteStats(int pageCount, long totalLength) {
+        public static final SiteStats EMPTY = new SiteStats(0, 0);
+
+        public float averageLength() {
+            return pageCount == 0 ? 1F : Math.max(1F, (float) totalLength / pageCount);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import searchengine.config.Site;
+import searchengine.services.frontier.UrlFrontier;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RequiredArgsConstructor
+public class ForkJoinSiteCrawl implements SiteCrawl {
+    private final Site site;
+    private final List<LinksProcessor> roots;
+    private final UrlFrontier frontier;
+    private final ForkJoinPool pool;
+    private final AtomicInteger pending;
+
+    public void start() {
+        roots.forEach(pool::execute);
+    }
+
+    @Override
+    public Site getSite() {
+        return site;
+    }
+
+    @Override
+    public boolean isDone() {
+        return roots.stream().allMatch(LinksProcessor::isDone) && pool.getActiveThreadCount() == 0
+                && pending.get() == 0;
+    }
+
+    @Override
+    public UrlFrontier getFrontier() {
+        return frontier;
+    }
+
+    @Override
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,427 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.config.BatchSetting;
+import searchengine.repositories.IndexBatchRepository;
+import searchengine.repositories.IndexBatchRepository.IndexRow;
+import searchengine.services.interfaces.IndexStorage;
+import searchengine.services.interfaces.IndexStorage.PageUpdate;
+import searchengine.services.search.SearchResultCache;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Стадия persist конвейера индексации: леммы проиндексированных страниц попадают в ограниченную очередь,
+ * поток записи забирает их пачками - до pagesPerBatch страниц за одну транзакцию, один upsert лемм на сайт
+ * и запись строк индекса в {@link IndexStorage}. Пачка ждёт пополнения не дольше flushInterval.
+ * Если запись не успевает, add ждёт места в очереди.
+ * <p>
+ * Для переиндексированной страницы записывается только разница с прежним вектором лемм: frequency меняется
+ * у лемм, которые на странице появились или исчезли, строки индекса - у новых, исчезнувших и лемм
+ * с изменившимся rank.
+ * <p>
+ * Пачка, транзакция которой откатилась, записывается повторно до MAX_ATTEMPTS раз. Страницы пачки, которую
+ * записать так и не удалось, не считаются записанными: {@link #flush()} возвращает false, их пути отдаёт
+ * {@link #takeFailedPaths}, а в базе у них сбрасывается content_hash, чтобы повторный обход
+ * проиндексировал их заново.
+ */
+@Component
+@RequiredArgsConstructor
+@Log4j2
+public class IndexBatchWriter {
+    private final IndexBatchRepository batchRepository;
+    private final IndexStorage indexStorage;
+    private final TransactionTemplate transactionTemplate;
+    private final BatchSetting setting;
+    private final LemmaDictionary lemmaDictionary;
+    private final DocumentStats documentStats;
+    private final SearchResultCache searchResultCache;
+    private final MeterRegistry meterRegistry;
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final long RETRY_DELAY = 1000;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final Queue<FailedPage> failed = new ConcurrentLinkedQueue<>();
+    private BlockingQueue<PageLemmas> queue;
+    private Thread persister;
+    private Counter processed;
+    private Counter failedPages;
+    private Timer duration;
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(setting.getQueueCapacity());
+        Gauge.builder("indexing.stage.queued", queue, BlockingQueue::size)
+                .tag("stage", "persist").register(meterRegistry);
+        processed = Counter.builder("indexing.stage.processed").tag("stage", "persist").register(meterRegistry);
+        failedPages = Counter.builder("indexing.stage.failed").tag("stage", "persist").register(meterRegistry);
+        duration = Timer.builder("indexing.stage.duration").tag("stage", "persist").register(meterRegistry);
+        persister = new Thread(this::persist, "index-batch-writer");
+        persister.setDaemon(true);
+        persister.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+        running = false;
+        persister.interrupt();
+    }
+
+    /**
+     * @param path      путь страницы на сайте
+     * @param oldLemmas леммы, с которыми страница была проиндексирована, или null для новой страницы
+     */
+    public void add(int siteId, int pageId, String path, LemmaCounts lemmas, LemmaCounts oldLemmas) {
+        long sequence = submitted.incrementAndGet();
+        try {
+            queue.put(new PageLemmas(sequence, siteId, pageId, path, lemmas, oldLemmas));
+        } catch (InterruptedException e) {
+            submitted.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for index batch queue", e);
+        }
+    }
+
+    /**
+     * Ждёт, пока будут обработаны все страницы, добавленные до вызова.
+     *
+     * @return false, если какие-то из них записать не удалось и их пути ещё не забраны {@link #takeFailedPaths}
+     */
+    public boolean flush() {
+        long target = submitted.get();
+        synchronized (completed) {
+            while (completed.get() < target && persister.isAlive()) {
+                try {
+                    completed.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return completed.get() >= target && failed.stream().noneMatch(page -> page.sequence() <= target);
+    }
+
+    /**
+     * @return пути страниц сайта, которые не удалось записать; каждый путь возвращается один раз
+     */
+    public Set<String> takeFailedPaths(int siteId) {
+        Set<String> paths = new LinkedHashSet<>();
+        for (Iterator<FailedPage> iterator = failed.iterator(); iterator.hasNext(); ) {
+            FailedPage page = iterator.next();
+            if (page.siteId() == siteId) {
+                paths.add(page.path());
+                iterator.remove();
+            }
+        }
+        return paths;
+    }
+
+    private void persist() {
+        List<PageLemmas> pages = new ArrayList<>();
+        while (running) {
+            try {
+                PageLemmas first = queue.take();
+                pages.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(setting.getFlushInterval());
+                while (pages.size() < setting.getPagesPerBatch()) {
+                    queue.drainTo(pages, setting.getPagesPerBatch() - pages.size());
+                    long wait = deadline - System.nanoTime();
+                    if (pages.size() >= setting.getPagesPerBatch() || wait <= 0) {
+                        break;
+                    }
+                    PageLemmas next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    pages.add(next);
+                }
+            } catch (InterruptedException e) {
+                if (pages.isEmpty()) {
+                    continue;
+                }
+            }
+            AtomicBoolean committed = new AtomicBoolean();
+            boolean written = false;
+            for (int attempt = 1; !written && !committed.get() && attempt <= MAX_ATTEMPTS; attempt++) {
+                try {
+                    duration.record(() -> write(pages, committed));
+                    written = true;
+                } catch (Exception e) {
+                    log.error("Failed to write index batch of {} pages, attempt {} of {}", pages.size(), attempt,
+                            MAX_ATTEMPTS, e);
+                    if (!committed.get() && attempt < MAX_ATTEMPTS && !sleepBeforeRetry(attempt)) {
+                        break;
+                    }
+                }
+            }
+            if (written) {
+                processed.increment(pages.size());
+            } else {
+                fail(pages, committed.get());
+            }
+            synchronized (completed) {
+                completed.addAndGet(pages.size());
+                completed.notifyAll();
+            }
+            pages.clear();
+        }
+    }
+
+    /**
+     * @return false, если ожидание прервано
+     */
+    private boolean sleepBeforeRetry(int attempt) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(RETRY_DELAY * attempt);
+            return running;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Страницы пачки, которую не удалось записать, отмечаются непроиндексированными. Если транзакция откатилась,
+     * в индексе остались прежние леммы страниц, и они становятся вектором лемм страницы. Если транзакция
+     * зафиксирована, а не записались только файлы хранилища индекса, frequency лемм уже учитывает новые леммы,
+     * и вектор не меняется.
+     */
+    private void fail(List<PageLemmas> pages, boolean committed) {
+        failedPages.increment(pages.size());
+        SortedMap<Integer, byte[]> lemmaVectors = new TreeMap<>();
+        for (PageLemmas page : pages) {
+            LemmaCounts indexed = committed ? page.lemmas()
+                    : page.oldLemmas() == null ? new LemmaCounts() : page.oldLemmas();
+            lemmaVectors.put(page.pageId(), indexed.toBytes());
+            failed.add(new FailedPage(page.sequence(), page.siteId(), page.path()));
+        }
+        try {
+            batchRepository.resetPages(lemmaVectors, setting.getJdbcBatchSize());
+        } catch (Exception e) {
+            log.error("Failed to mark {} pages as not indexed", pages.size(), e);
+        }
+    }
+
+    /**
+     * @param committed становится true, когда транзакция пачки зафиксирована, даже если потом запись
+     *                  в хранилище индекса завершилась ошибкой
+     */
+    private void write(List<PageLemmas> pages, AtomicBoolean committed) {
+        Map<Integer, SiteBatch> batches = new HashMap<>();
+        for (PageLemmas page : pages) {
+            batches.computeIfAbsent(page.siteId(), SiteBatch::new).pages().add(page);
+        }
+        RuntimeException storageError = null;
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                // регистрируется раньше записей хранилища индекса, поэтому сегменты пишутся уже с длинами страниц
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        committed.set(true);
+                        for (SiteBatch batch : batches.values()) {
+                            for (PageLemmas page : batch.pages()) {
+                                documentStats.setLength(batch.siteId(), page.pageId(), page.lemmas().total());
+                            }
+                        }
+                    }
+                });
+                batches.values().forEach(this::writeSite);
+            });
+        } catch (RuntimeException e) {
+            if (!committed.get()) {
+                throw e;
+            }
+            storageError = e;
+        }
+        for (SiteBatch batch : batches.values()) {
+            for (Map.Entry<String, Integer> entry : batch.lemmaIds().entrySet()) {
+                String lemma = entry.getKey();
+                int delta = batch.lemmaPageCounts().getOrDefault(lemma, 0);
+                if (delta < 0) {
+                    lemmaDictionary.decrement(batch.siteId(), lemma, -delta);
+                } else {
+                    lemmaDictionary.add(batch.siteId(), lemma, entry.getValue(), delta,
+                            batch.maxRanks().getOrDefault(lemma, 0));
+                }
+            }
+            searchResultCache.invalidateSite(batch.siteId());
+        }
+        if (storageError != null) {
+            throw storageError;
+        }
+    }
+
+    private void writeSite(SiteBatch batch) {
+        int siteId = batch.siteId();
+        SortedMap<String, Integer> lemmaPageCounts = batch.lemmaPageCounts();
+        Map<String, Integer> maxRanks = batch.maxRanks();
+        Set<String> lemmas = new HashSet<>();
+        for (PageLemmas page : batch.pages()) {
+            LemmaCounts oldLemmas = page.oldLemmas();
+            page.lemmas().forEach((lemma, count) -> {
+                lemmas.add(lemma);
+                maxRanks.merge(lemma, count, Math::max);
+                if (oldLemmas == null || !oldLemmas.contains(lemma)) {
+                    lemmaPageCounts.merge(lemma, 1, Integer::sum);
+                }
+            });
+            if (oldLemmas != null) {
+                oldLemmas.forEach((lemma, count) -> {
+                    if (!page.lemmas().contains(lemma)) {
+                        lemmas.add(lemma);
+                        lemmaPageCounts.merge(lemma, -1, Integer::sum);
+                    }
+                });
+            }
+        }
+        if (lemmas.isEmpty()) {
+            return;
+        }
+        SortedMap<String, Integer> addedLemmas = new TreeMap<>();
+        lemmaPageCounts.forEach((lemma, delta) -> {
+            if (delta > 0) {
+                addedLemmas.put(lemma, delta);
+            }
+        });
+        if (!addedLemmas.isEmpty()) {
+            batchRepository.upsertLemmas(siteId, addedLemmas, maxRanks);
+        }
+
+        Map<String, Integer> lemmaIds = batch.lemmaIds();
+        List<String> newLemmas = new ArrayList<>();
+        for (String lemma : lemmas) {
+            int lemmaId = lemmaDictionary.getId(siteId, lemma);
+            if (lemmaId < 0) {
+                newLemmas.add(lemma);
+            } else {
+                lemmaIds.put(lemma, lemmaId);
+            }
+        }
+        if (!newLemmas.isEmpty()) {
+            lemmaIds.putAll(batchRepository.findLemmaIds(siteId, newLemmas));
+        }
+
+        SortedMap<Integer, Integer> raisedMaxRanks = new TreeMap<>();
+        maxRanks.forEach((lemma, maxRank) -> {
+            LemmaDictionary.LemmaInfo info = lemmaDictionary.find(siteId, lemma);
+            if (info != null && info.maxRank() > 0 && info.maxRank() < maxRank) {
+                raisedMaxRanks.put(info.id(), maxRank);
+            }
+        });
+        if (!raisedMaxRanks.isEmpty()) {
+            batchRepository.raiseMaxRanks(raisedMaxRanks, setting.getJdbcBatchSize());
+        }
+
+        SortedMap<Integer, Integer> removedLemmas = new TreeMap<>();
+        lemmaPageCounts.forEach((lemma, delta) -> {
+            Integer lemmaId = lemmaIds.get(lemma);
+            if (delta < 0 && lemmaId != null) {
+                removedLemmas.put(lemmaId, -delta);
+            }
+        });
+        if (!removedLemmas.isEmpty()) {
+            batchRepository.decrementLemmas(removedLemmas, setting.getJdbcBatchSize());
+        }
+
+        List<IndexRow> rows = new ArrayList<>();
+        for (PageLemmas page : batch.pages()) {
+            if (page.oldLemmas() == null) {
+                page.lemmas().forEach((lemma, count) -> {
+                    Integer lemmaId = lemmaIds.get(lemma);
+                    if (lemmaId != null) {
+                        rows.add(new IndexRow(page.pageId(), lemmaId, count));
+                    }
+                });
+            }
+        }
+        if (!rows.isEmpty()) {
+            indexStorage.savePostings(siteId, rows);
+        }
+        List<PageUpdate> updates = new ArrayList<>();
+        int updatedRows = 0;
+        for (PageLemmas page : batch.pages()) {
+            if (page.oldLemmas() != null) {
+                PageUpdate update = pageUpdate(page, lemmaIds);
+                if (!update.changedRows().isEmpty() || !update.removedLemmaIds().isEmpty()) {
+                    updates.add(update);
+                    updatedRows += update.changedRows().size() + update.removedLemmaIds().size();
+                }
+            }
+        }
+        if (!updates.isEmpty()) {
+            indexStorage.updatePages(siteId, updates);
+        }
+        log.debug("Saved {} lemmas, {} new and {} changed index rows for {} pages", lemmaPageCounts.size(),
+                rows.size(), updatedRows, batch.pages().size());
+    }
+
+    /**
+     * @return разница строк индекса переиндексированной страницы
+     */
+    private static PageUpdate pageUpdate(PageLemmas page, Map<String, Integer> lemmaIds) {
+        List<IndexRow> changedRows = new ArrayList<>();
+        List<IndexRow> allRows = new ArrayList<>(page.lemmas().size());
+        List<Integer> removedLemmaIds = new ArrayList<>();
+        page.lemmas().forEach((lemma, count) -> {
+            Integer lemmaId = lemmaIds.get(lemma);
+            if (lemmaId != null) {
+                IndexRow row = new IndexRow(page.pageId(), lemmaId, count);
+                allRows.add(row);
+                if (page.oldLemmas().get(lemma) != count) {
+                    changedRows.add(row);
+                }
+            }
+        });
+        page.oldLemmas().forEach((lemma, count) -> {
+            Integer lemmaId = lemmaIds.get(lemma);
+            if (lemmaId != null && !page.lemmas().contains(lemma)) {
+                removedLemmaIds.add(lemmaId);
+            }
+        });
+        return new PageUpdate(page.pageId(), changedRows, removedLemmaIds, allRows);
+    }
+
+    /**
+     * @param sequence номер страницы в порядке добавления
+     */
+    private record PageLemmas(long sequence, int siteId, int pageId, String path, LemmaCounts lemmas,
+                              LemmaCounts oldLemmas) {
+    }
+
+    private record FailedPage(long sequence, int siteId, String path) {
+    }
+
+    /**
+     * @param lemmaPageCounts на сколько страниц больше (меньше) стало у лемм
+     * @param maxRanks        наибольший rank лемм на страницах пачки
+     */
+    private record SiteBatch(int siteId, List<PageLemmas> pages, SortedMap<String, Integer> lemmaPageCounts,
+                             Map<String, Integer> maxRanks, Map<String, Integer> lemmaIds) {
+        SiteBatch(int siteId) {
+            this(siteId, new ArrayList<>(), new TreeMap<>(), new HashMap<>(), new HashMap<>());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import searchengine.config.CrawlerSetting;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Стадии конвейера индексации:
+ * <ol>
+ * <li>fetch - загрузка и разбор страницы, выбор ссылок для обхода (виртуальные потоки, в режиме forkjoin -
+ * ForkJoinPool сайта);</li>
+ * <li>index - сохранение страницы и лемматизация (indexThreads обычных потоков);</li>
+ * <li>persist - пакетная запись лемм и индекса ({@link IndexBatchWriter}).</li>
+ * </ol>
+ * Очередь fetch не ограничена - её пополняет сам обход, ограничение на сайт задаёт maxConcurrentFetches.
+ */
+@Component
+@Getter
+@Log4j2
+public class IndexingPipeline {
+    private final PipelineStage fetchStage;
+    private final PipelineStage indexStage;
+
+    public IndexingPipeline(CrawlerSetting setting, MeterRegistry meterRegistry) {
+        fetchStage = new PipelineStage("fetch", createFetchExecutor(), Integer.MAX_VALUE, meterRegistry);
+        int indexThreads = setting.getIndexThreads() > 0
+                ? setting.getIndexThreads() : Runtime.getRuntime().availableProcessors();
+        indexStage = new PipelineStage("index", Executors.newFixedThreadPool(indexThreads, daemonThreads("crawler-index-")),
+                indexThreads + setting.getIndexQueueCapacity(), meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        fetchStage.shutdown();
+        indexStage.shutdown();
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor появился в JDK 21, проект собирается под 17,
+     * поэтому метод ищется при запуске. На JDK 17 используется пул обычных потоков без ограничения
+     * размера - параллельность загрузок ограничивают семафоры сайтов.
+     */
+    private static ExecutorService createFetchExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            log.info("Crawler fetches pages on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            log.info("Virtual threads are not available, crawler fetches pages on platform threads");
+            return Executors.newCachedThreadPool(daemonThreads("crawler-fetch-"));
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,130 @@
+package searchengine.services;
+
+import java.io.*;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Счётчик лемм страницы: открытая адресация со строковыми ключами и int-значениями без упаковки.
+ */
+public class LemmaCounts {
+    private String[] keys;
+    private int[] values;
+    private int size;
+
+    public LemmaCounts() {
+        this(16);
+    }
+
+    public LemmaCounts(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        keys = new String[capacity];
+        values = new int[capacity];
+    }
+
+    public void add(String lemma, int count) {
+        int slot = slotOf(keys, lemma);
+        if (keys[slot] != null) {
+            values[slot] += count;
+            return;
+        }
+        keys[slot] = lemma;
+        values[slot] = count;
+        if (++size * 4 > keys.length * 3) {
+            resize();
+        }
+    }
+
+    public int get(String lemma) {
+        int slot = slotOf(keys, lemma);
+        return keys[slot] == null ? 0 : values[slot];
+    }
+
+    public boolean contains(String lemma) {
+        return keys[slotOf(keys, lemma)] != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return сумма количеств всех лемм
+     */
+    public int total() {
+        int total = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                total += values[i];
+            }
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(ObjIntConsumer<String> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                action.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Вектор лемм страницы для хранения в базе: число лемм, затем пары (лемма, количество).
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size * 16 + 4);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(size);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    out.writeUTF(keys[i]);
+                    out.writeInt(values[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static LemmaCounts fromBytes(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int size = in.readInt();
+            LemmaCounts counts = new LemmaCounts(size);
+            for (int i = 0; i < size; i++) {
+                counts.add(in.readUTF(), in.readInt());
+            }
+            return counts;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        values = new int[keys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slotOf(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int slotOf(String[] table, String lemma) {
+        int mask = table.length - 1;
+        int h = lemma.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (table[slot] != null && !table[slot].equals(lemma)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
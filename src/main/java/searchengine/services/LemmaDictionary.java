@@ -0,0 +1,135 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Словари лемм всех сайтов в памяти: лемма -> id, frequency и наибольший rank.
+ * Загружается один раз при старте и обновляется индексатором вместе с таблицей lemma.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+@Log4j2
+public class LemmaDictionary {
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<Integer, SiteLemmaTable> sites = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter misses;
+
+    public LemmaDictionary(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        hits = meterRegistry.counter("lemma.dictionary.lookups", "result", "hit");
+        misses = meterRegistry.counter("lemma.dictionary.lookups", "result", "miss");
+        Gauge.builder("lemma.dictionary.size", this, LemmaDictionary::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void load() {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("SELECT id, site_id, lemma, frequency, max_rank FROM lemma",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(Integer.MIN_VALUE);
+            return ps;
+        }, rs -> {
+            table(rs.getInt("site_id")).add(rs.getString("lemma"), rs.getInt("id"), rs.getInt("frequency"),
+                    rs.getInt("max_rank"));
+        });
+        log.info("Lemma dictionary loaded: {} lemmas for {} sites", size(), sites.size());
+    }
+
+    /**
+     * @return id леммы или -1, если на сайте такой леммы нет
+     */
+    public int getId(int siteId, String lemma) {
+        SiteLemmaTable table = sites.get(siteId);
+        return count(table == null ? -1 : table.getId(lemma), -1);
+    }
+
+    public int getFrequency(int siteId, String lemma) {
+        SiteLemmaTable table = sites.get(siteId);
+        return count(table == null ? 0 : table.getFrequency(lemma), 0);
+    }
+
+    public LemmaInfo find(int siteId, String lemma) {
+        SiteLemmaTable table = sites.get(siteId);
+        LemmaInfo info = table == null ? null : table.find(lemma);
+        (info == null ? misses : hits).increment();
+        return info;
+    }
+
+    public void add(int siteId, String lemma, int id, int frequencyDelta, int maxRank) {
+        table(siteId).add(lemma, id, frequencyDelta, maxRank);
+    }
+
+    public void decrement(int siteId, String lemma, int count) {
+        SiteLemmaTable table = sites.get(siteId);
+        if (table != null) {
+            table.decrement(lemma, count);
+        }
+    }
+
+    /**
+     * Обходит леммы сайта, которые есть хотя бы на одной странице, с их частотой
+     */
+    public void forEachLemma(int siteId, ObjIntConsumer<String> action) {
+        SiteLemmaTable table = sites.get(siteId);
+        if (table != null) {
+            table.forEach(action);
+        }
+    }
+
+    /**
+     * @return число лемм сайта, включая леммы с нулевой частотой
+     */
+    public int size(int siteId) {
+        SiteLemmaTable table = sites.get(siteId);
+        return table == null ? 0 : table.size();
+    }
+
+    public void removeSite(int siteId) {
+        sites.remove(siteId);
+    }
+
+    public long size() {
+        long size = 0;
+        for (SiteLemmaTable table : sites.values()) {
+            size += table.size();
+        }
+        return size;
+    }
+
+    public double getHitCount() {
+        return hits.count();
+    }
+
+    public double getMissCount() {
+        return misses.count();
+    }
+
+    private SiteLemmaTable table(int siteId) {
+        return sites.computeIfAbsent(siteId, k -> new SiteLemmaTable());
+    }
+
+    private int count(int value, int missValue) {
+        (value == missValue ? misses : hits).increment();
+        return value;
+    }
+
+    /**
+     * @param maxRank наибольший rank леммы на страницах сайта или 0, если он неизвестен
+     */
+    public record LemmaInfo(int id, int frequency, int maxRank) {
+    }
+}
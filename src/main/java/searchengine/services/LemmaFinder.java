@@ -1,63 +1,59 @@
 package searchengine.services;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.apache.lucene.morphology.LuceneMorphology;
 import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
+import org.springframework.stereotype.Component;
+import searchengine.config.MorphologySetting;
+import searchengine.services.search.PagePositions;
 
 import java.io.IOException;
 import java.util.*;
 
+/**
+ * Общий для индексатора и поиска лемматизатор. Словарь морфологии загружается один раз,
+ * результаты разбора словоформ кэшируются, все методы потокобезопасны.
+ */
+@Component
 public class LemmaFinder {
     private final LuceneMorphology luceneMorphology;
+    private final LoadingCache<String, WordForms> wordFormsCache;
     private static final String WORD_TYPE_REGEX = "\\W\\w&&[^а-яА-Я\\s]";
     private static final String[] particlesNames = new String[]{"МЕЖД", "ПРЕДЛ", "СОЮЗ"};
 
-    public static LemmaFinder getInstance() throws IOException {
-        LuceneMorphology morphology= new RussianLuceneMorphology();
-        return new LemmaFinder(morphology);
-    }
-
-    private LemmaFinder(LuceneMorphology luceneMorphology) {
-        this.luceneMorphology = luceneMorphology;
-    }
-
-    private LemmaFinder(){
-        throw new RuntimeException("Disallow construct");
+    public LemmaFinder(MorphologySetting setting, MeterRegistry meterRegistry) throws IOException {
+        this.luceneMorphology = new RussianLuceneMorphology();
+        this.wordFormsCache = Caffeine.newBuilder()
+                .maximumSize(setting.getCacheSize())
+                .recordStats()
+                .build(this::parseWord);
+        CaffeineCacheMetrics.monitor(meterRegistry, wordFormsCache, "lemmaFinder");
+        Gauge.builder("lemma.finder.cache.hit.ratio", wordFormsCache, cache -> cache.stats().hitRate())
+                .register(meterRegistry);
     }
 
     /**
      * Метод разделяет текст на слова, находит все леммы и считает их количество.
+     * Морфологический разбор выполняется один раз на каждое различное слово текста.
      *
      * @param text текст из которого будут выбираться леммы
      * @return ключ является леммой, а значение количеством найденных лемм
      */
-    public Map<String, Integer> collectLemmas(String text) {
-        String[] words = arrayContainsRussianWords(text);
-        HashMap<String, Integer> lemmas = new HashMap<>();
-
-        for (String word : words) {
-            if (word.isBlank()) {
-                continue;
-            }
-
-            List<String> wordBaseForms = luceneMorphology.getMorphInfo(word);
-            if (anyWordBaseBelongToParticle(wordBaseForms)) {
-                continue;
-            }
-
-            List<String> normalForms = luceneMorphology.getNormalForms(word);
-            if (normalForms.isEmpty()) {
-                continue;
-            }
-
-            for (String normalWord : normalForms) {
-                if (lemmas.containsKey(normalWord)) {
-                    lemmas.put(normalWord, lemmas.get(normalWord) + 1);
-                } else {
-                    lemmas.put(normalWord, 1);
+    public LemmaCounts collectLemmas(CharSequence text) {
+        TokenCounts words = TokenCounts.of(text);
+        LemmaCounts lemmas = new LemmaCounts(words.size());
+        words.forEach((word, count) -> {
+            WordForms wordForms = wordFormsCache.get(word);
+            if (!wordForms.particle()) {
+                for (String normalWord : wordForms.normalForms()) {
+                    lemmas.add(normalWord, count);
                 }
             }
-        }
-
+        });
         return lemmas;
     }
 
@@ -66,19 +62,76 @@ public class LemmaFinder {
      * @param text текст из которого собираем все леммы
      * @return набор уникальных лемм найденных в тексте
      */
-    public Set<String> getLemmaSet(String text) {
-        String[] textArray = arrayContainsRussianWords(text);
+    public Set<String> getLemmaSet(CharSequence text) {
         Set<String> lemmaSet = new HashSet<>();
-        for (String word : textArray) {
-            if (!word.isEmpty() && isCorrectWordForm(word)) {
-                List<String> wordBaseForms = luceneMorphology.getMorphInfo(word);
-                if (anyWordBaseBelongToParticle(wordBaseForms)) {
-                    continue;
+        TokenCounts.of(text).forEach((word, count) -> {
+            WordForms wordForms = wordFormsCache.get(word);
+            if (wordForms.correctForm() && !wordForms.particle()) {
+                lemmaSet.addAll(wordForms.normalForms());
+            }
+        });
+        return lemmaSet;
+    }
+
+    /**
+     * Строит позиционный индекс текста: словоформы лемм разбираются по тем же правилам, что в
+     * {@link #collectLemmas}. Предложение начинается после '.', '!' или '?' и пробела с заглавной буквы,
+     * цифры или кавычки.
+     */
+    public PagePositions findPositions(String text) {
+        PagePositions.Builder positions = new PagePositions.Builder();
+        positions.addSentence(0);
+        int wordStart = -1;
+        boolean sentenceEnd = false;
+        boolean afterSpace = false;
+        for (int i = 0, length = text.length(); i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            char lower = c >= 'А' && c <= 'Я' ? (char) (c + ('а' - 'А')) : c;
+            if (lower >= 'а' && lower <= 'я') {
+                if (wordStart < 0) {
+                    wordStart = i;
+                }
+            } else if (wordStart >= 0) {
+                addWord(positions, text, wordStart, i);
+                wordStart = -1;
+            }
+            if (c == '.' || c == '!' || c == '?') {
+                sentenceEnd = true;
+                afterSpace = false;
+            } else if (Character.isWhitespace(c)) {
+                afterSpace = sentenceEnd;
+            } else {
+                if (afterSpace && i > 0 && (Character.isUpperCase(c) || Character.isDigit(c) || c == '«' || c == '"')) {
+                    positions.addSentence(i);
                 }
-                lemmaSet.addAll(luceneMorphology.getNormalForms(word));
+                sentenceEnd = false;
+                afterSpace = false;
             }
         }
-        return lemmaSet;
+        return positions.build();
+    }
+
+    private void addWord(PagePositions.Builder positions, String text, int start, int end) {
+        WordForms wordForms = wordFormsCache.get(text.substring(start, end).toLowerCase());
+        if (!wordForms.particle()) {
+            for (String normalWord : wordForms.normalForms()) {
+                positions.add(normalWord, start, end - start);
+            }
+        }
+    }
+
+    public long getCacheSize() {
+        return wordFormsCache.estimatedSize();
+    }
+
+    public double getCacheHitRatio() {
+        return wordFormsCache.stats().hitRate();
+    }
+
+    private WordForms parseWord(String word) {
+        List<String> wordBaseForms = luceneMorphology.getMorphInfo(word);
+        return new WordForms(anyWordBaseBelongToParticle(wordBaseForms), isCorrectWordForm(wordBaseForms),
+                List.copyOf(luceneMorphology.getNormalForms(word)));
     }
 
     private boolean anyWordBaseBelongToParticle(List<String> wordBaseForms) {
@@ -94,15 +147,7 @@ public class LemmaFinder {
         return false;
     }
 
-    private String[] arrayContainsRussianWords(String text) {
-        return text.toLowerCase(Locale.ROOT)
-                .replaceAll("([^а-я\\s])", " ")
-                .trim()
-                .split("\\s+");
-    }
-
-    private boolean isCorrectWordForm(String word) {
-        List<String> wordInfo = luceneMorphology.getMorphInfo(word);
+    private boolean isCorrectWordForm(List<String> wordInfo) {
         for (String morphInfo : wordInfo) {
             if (morphInfo.matches(WORD_TYPE_REGEX)) {
                 return false;
@@ -110,4 +155,7 @@ public class LemmaFinder {
         }
         return true;
     }
-}
\ No newline at end of file
+
+    private record WordForms(boolean particle, boolean correctForm, List<String> normalForms) {
+    }
+}
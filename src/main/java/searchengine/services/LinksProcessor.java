@@ -4,56 +4,107 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import searchengine.config.Site;
+import searchengine.services.frontier.UrlFrontier;
 
-import java.util.TreeSet;
-import java.util.concurrent.RecursiveTask;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Обход сайта в режиме forkjoin: задача загружает страницу и порождает задачи для её ссылок, а сохранение
+ * и лемматизацию передаёт в ограниченную стадию index {@link IndexingPipeline}, как и режим virtual.
+ * Задача не привязана к своей ссылке: ссылки ставятся в очередь {@link UrlFrontier}, и каждая задача берёт
+ * из неё самый ранний путь, поэтому страницы, как и в режиме virtual, загружаются в порядке обнаружения.
+ * Если поток прерван или стадия index отказала в приёме, путь возвращается в очередь для продолжения обхода.
+ */
 @Log4j2
 @RequiredArgsConstructor
-public class LinksProcessor extends RecursiveTask<TreeSet<String>> {
+public class LinksProcessor extends RecursiveAction {
     private final String rootURL;
-    private final String URL;
     private final Site site;
     private final PageProcessor pageProcessor;
     private final boolean indexOnlyOnePage;
-    private final TreeSet<String> listOfURL;
+    private final UrlFrontier frontier;
+    private final IndexingPipeline pipeline;
+    /**
+     * Страницы сайта, переданные в стадию index и ещё не сохранённые
+     */
+    private final AtomicInteger pending;
 
     @Override
-    protected TreeSet<String> compute() {
+    protected void compute() {
+        String urlPath = frontier.poll();
+        if (urlPath == null) {
+            return;
+        }
 
         if (!MainProcessor.isIndexing && !indexOnlyOnePage) {
-            return listOfURL;
+            return;
         }
 
 
-        String validURL = rootURL + URL;
-        String urlPath = URL;
-        if (!rootURL.equals(site.getUrl()) && URL.equals("/")) {
-            urlPath = rootURL;
-        }
-
-        if (pageProcessor.existsByPath(urlPath) && !indexOnlyOnePage || !listOfURL.add(validURL)) {
-            return listOfURL;
-        }
+        String validURL = rootURL + urlPath;
 
 //        log.info(validURL);
 
-        Document doc = pageProcessor.getDocFromUrl(validURL);
-        if (doc != null) {
-            pageProcessor.indexPage(doc, indexOnlyOnePage);
-            if (!indexOnlyOnePage) {
-                Elements elements = doc.select("a");
-                forkLinks(elements);
+        try {
+            frontier.awaitPoliteness(validURL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            frontier.requeue(urlPath);
+            return;
+        }
+        PageProcessor.FetchedPage page = pageProcessor.fetchPage(validURL);
+        if (page == null) {
+            frontier.done(urlPath);
+            return;
+        }
+        if (!indexOnlyOnePage) {
+            for (String href : collectLinks(page.doc(), site)) {
+                if (frontier.offer(href)) {
+                    new LinksProcessor(rootURL, site, pageProcessor, indexOnlyOnePage, frontier, pipeline,
+                            pending).fork();
+                }
             }
         }
-        return listOfURL;
+        pending.incrementAndGet();
+        try {
+            pipeline.getIndexStage().submit(() -> {
+                try {
+                    pageProcessor.indexPage(page, indexOnlyOnePage);
+                } catch (Exception e) {
+                    log.error("Failed to index {}", validURL, e);
+                } finally {
+                    frontier.done(urlPath);
+                    pending.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            frontier.requeue(urlPath);
+        } catch (InterruptedException e) {
+            pending.decrementAndGet();
+            frontier.requeue(urlPath);
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private void forkLinks(Elements elements) {
+    static String pagePath(String rootURL, String URL, Site site) {
+        if (!rootURL.equals(site.getUrl()) && URL.equals("/")) {
+            return rootURL;
+        }
+        return URL;
+    }
 
-        for (Element element : elements) {
+    /**
+     * @return пути ссылок страницы на страницы того же сайта, которые нужно обойти
+     */
+    static List<String> collectLinks(Document doc, Site site) {
+        List<String> links = new ArrayList<>();
+        for (Element element : doc.select("a")) {
             String path = element.attr("abs:href");
             String purePath = PageProcessor.deletePrefix(path);
             String pureSiteUrl = PageProcessor.deletePrefix(site.getUrl());
@@ -71,9 +122,10 @@ public class LinksProcessor extends RecursiveTask<TreeSet<String>> {
                     && !href.endsWith(".zip")
                     && !href.endsWith(".rar")
                     && !href.endsWith(".png")) {
-                new LinksProcessor(rootURL, href, site, pageProcessor, indexOnlyOnePage, listOfURL).fork();
+                links.add(href);
             }
         }
+        return links;
     }
 
     public Site getSite() {
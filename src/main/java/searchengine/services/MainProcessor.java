@@ -2,20 +2,34 @@ package searchengine.services;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.config.CrawlerSetting;
 import searchengine.config.JsoupConnect;
 import searchengine.config.Site;
 import searchengine.config.SitesList;
 import searchengine.model.SiteEntity;
 import searchengine.model.StatusType;
-import searchengine.repositories.IndexRepository;
 import searchengine.repositories.LemmaRepository;
+import searchengine.repositories.PageHtmlRepository;
 import searchengine.repositories.PageRepository;
+import searchengine.repositories.PageTextRepository;
 import searchengine.repositories.SiteRepository;
+import searchengine.services.frontier.BloomVisitedSet;
+import searchengine.services.frontier.FrontierCheckpoint;
+import searchengine.services.frontier.StripedLongSet;
+import searchengine.services.frontier.UrlFrontier;
+import searchengine.services.frontier.VisitedSet;
+import searchengine.services.interfaces.IndexStorage;
+import searchengine.services.search.LemmaCompletion;
+import searchengine.services.search.SpellingCorrector;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RequiredArgsConstructor
 @Log4j2
@@ -23,11 +37,22 @@ public class MainProcessor extends Thread {
     private final SitesList sites;
     private final SiteRepository siteRepository;
     private final PageRepository pageRepository;
+    private final PageTextRepository pageTextRepository;
+    private final PageHtmlRepository pageHtmlRepository;
     private final LemmaRepository lemmaRepository;
-    private final IndexRepository indexRepository;
+    private final IndexStorage indexStorage;
+    private final IndexBatchWriter indexBatchWriter;
+    private final LemmaDictionary lemmaDictionary;
+    private final DocumentStats documentStats;
+    private final LemmaCompletion lemmaCompletion;
+    private final SpellingCorrector spellingCorrector;
+    private final LemmaFinder lemmaFinder;
     public static boolean isIndexing;
     private final JsoupConnect connect;
-    private final HashMap<LinksProcessor, ForkJoinPool> linksList = new HashMap<>();
+    private final CrawlerSetting crawlerSetting;
+    private final IndexingPipeline indexingPipeline;
+    private final TransactionTemplate transactionTemplate;
+    private final List<SiteCrawl> crawls = new ArrayList<>();
     private boolean isStopped;
     private boolean indexOnlyOnePage;
     private boolean isDataDeleting;
@@ -47,15 +72,19 @@ public class MainProcessor extends Thread {
     private boolean shutdownPools() {
         boolean isIndexingDone = !isDataDeleting;
         if (!isDataDeleting) {
-            ArrayList<LinksProcessor> linksToRemove = new ArrayList<>();
-            for (Map.Entry<LinksProcessor, ForkJoinPool> entry : linksList.entrySet()) {
-                LinksProcessor links = entry.getKey();
-                ForkJoinPool pool = entry.getValue();
-                Site site = links.getSite();
-                if (links.isDone() && pool.getActiveThreadCount() == 0) {
-                    pool.shutdown();
-                    saveInfoAndWriteLog(site);
-                    linksToRemove.add(links);
+            writeCheckpoints();
+            ArrayList<SiteCrawl> crawlsToRemove = new ArrayList<>();
+            for (SiteCrawl crawl : crawls) {
+                Site site = crawl.getSite();
+                if (crawl.isDone()) {
+                    crawl.shutdown();
+                    boolean persisted = indexBatchWriter.flush() || !recordFailedPages(crawl);
+                    // пути, оставшиеся в очереди остановленного обхода, загружаются при продолжении
+                    finishCheckpoint(crawl.getFrontier().getCheckpoint(), persisted && crawl.getFrontier().isEmpty());
+                    SiteEntity siteEntity = saveInfoAndWriteLog(site);
+                    lemmaCompletion.rebuildSite(siteEntity);
+                    spellingCorrector.rebuildSite(siteEntity);
+                    crawlsToRemove.add(crawl);
                 } else {
                     if (isStopped) {
                         log.info("Waiting while data finished collecting for site: {}", site.getUrl());
@@ -63,9 +92,7 @@ public class MainProcessor extends Thread {
                     isIndexingDone = false;
                 }
             }
-            for (LinksProcessor links : linksToRemove){
-                linksList.remove(links);
-            }
+            crawls.removeAll(crawlsToRemove);
             if (isIndexingDone) {
                 isIndexing = false;
                 if (!isStopped && !indexOnlyOnePage) {
@@ -76,17 +103,90 @@ public class MainProcessor extends Thread {
         return isIndexingDone;
     }
 
-    private void saveInfoAndWriteLog(Site site) {
+    /**
+     * Дописывает журналы обхода. Перед записью ждёт сохранения лемм уже обработанных страниц, чтобы
+     * страница не попала в журнал как обработанная раньше, чем её индекс окажется в базе; страницы,
+     * леммы которых записать не удалось, отмечаются в журнале для повторной обработки.
+     */
+    private void writeCheckpoints() {
+        Map<FrontierCheckpoint, List<String>> records = new HashMap<>();
+        for (SiteCrawl crawl : crawls) {
+            FrontierCheckpoint checkpoint = crawl.getFrontier().getCheckpoint();
+            if (checkpoint != null) {
+                records.put(checkpoint, checkpoint.drain());
+            }
+        }
+        if (records.values().stream().allMatch(List::isEmpty)) {
+            return;
+        }
+        boolean persisted = indexBatchWriter.flush();
+        records.forEach((checkpoint, drained) -> {
+            try {
+                checkpoint.append(drained);
+            } catch (IOException e) {
+                log.error("Failed to write crawl checkpoint", e);
+            }
+        });
+        if (!persisted) {
+            crawls.forEach(this::recordFailedPages);
+        }
+    }
+
+    /**
+     * Отмечает в журнале обхода страницы сайта, леммы которых не удалось записать
+     *
+     * @return true, если такие страницы есть
+     */
+    private boolean recordFailedPages(SiteCrawl crawl) {
+        SiteEntity siteEntity = siteRepository.findByUrl(crawl.getSite().getUrl());
+        Set<String> failed = siteEntity == null ? Set.of() : indexBatchWriter.takeFailedPaths(siteEntity.getId());
+        if (failed.isEmpty()) {
+            return false;
+        }
+        log.warn("Index of {} pages of site {} was not saved", failed.size(), crawl.getSite().getUrl());
+        FrontierCheckpoint checkpoint = crawl.getFrontier().getCheckpoint();
+        if (checkpoint != null) {
+            try {
+                checkpoint.appendFailed(failed);
+            } catch (IOException e) {
+                log.error("Failed to write crawl checkpoint", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Журнал остановленного обхода сохраняется для продолжения, завершённого - удаляется. Если леммы
+     * каких-то страниц записать не удалось, журнал сохраняется, чтобы продолжение обработало их заново.
+     */
+    private void finishCheckpoint(FrontierCheckpoint checkpoint, boolean persisted) {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            if (isStopped || !persisted) {
+                checkpoint.write();
+            } else {
+                checkpoint.delete();
+            }
+        } catch (IOException e) {
+            log.error("Failed to finish crawl checkpoint", e);
+        }
+    }
+
+    private SiteEntity saveInfoAndWriteLog(Site site) {
         int countPages = pageRepository.countPageEntitiesBySite(siteRepository.findByUrl(site.getUrl()));
+        SiteEntity siteEntity;
         if (indexOnlyOnePage) {
             log.info("Adding/updating page finished");
-            saveSite(site, "", null);
+            siteEntity = saveSite(site, "", null);
         } else if (isStopped) {
-            saveSite(site, "Индексация остановлена пользователем", StatusType.FAILED);
+            siteEntity = saveSite(site, "Индексация остановлена пользователем", StatusType.FAILED);
         } else {
-            saveSite(site, "", StatusType.INDEXED);
+            siteEntity = saveSite(site, "", StatusType.INDEXED);
         }
         log.info("There are {} pages indexed for site: {}", countPages, site.getUrl());
+        return siteEntity;
     }
 
 
@@ -117,17 +217,23 @@ public class MainProcessor extends Thread {
         return siteEntity;
     }
 
-    public void startIndexing() {
+    /**
+     * @param resume      продолжить прерванный обход по журналам, не удаляя уже проиндексированные данные
+     * @param incremental обойти сайты заново, не удаляя данные и переиндексируя только изменившиеся страницы
+     */
+    public void startIndexing(boolean resume, boolean incremental) {
         if (!isIndexing) {
             isIndexing = true;
-            linksList.clear();
+            crawls.clear();
             List<Site> sitesList = sites.getSites();
+            int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, sitesList.size()));
             for (Site site : sitesList) {
-                deleteDataFoSite(site);
-                ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors() / sitesList.size());
-                indexSite(site, pool);
+                if (!resume && !incremental) {
+                    deleteDataFoSite(site);
+                }
+                indexSite(site, parallelism, resume, incremental);
             }
-            log.info("Indexing started");
+            log.info(resume ? "Indexing resumed" : incremental ? "Incremental indexing started" : "Indexing started");
         }
     }
 
@@ -137,20 +243,88 @@ public class MainProcessor extends Thread {
         if (siteEntity != null) {
             log.info("Deleting data for site: {}", site.getUrl());
             int siteId = siteEntity.getId();
-            indexRepository.deleteAllBySite(siteId);
+            indexStorage.deleteSite(siteId);
+            pageTextRepository.deleteBySite(siteId);
+            pageHtmlRepository.deleteBySite(siteId);
             pageRepository.deleteBySite(siteId);
             lemmaRepository.deleteAllBySite(siteId);
+            lemmaDictionary.removeSite(siteId);
+            documentStats.removeSite(siteId);
+            lemmaCompletion.removeSite(siteEntity.getUrl());
+            spellingCorrector.removeSite(siteId);
             siteRepository.delete(siteEntity);
+            try {
+                createCheckpoint(siteEntity).delete();
+            } catch (IOException e) {
+                log.error("Failed to delete crawl checkpoint for site: {}", site.getUrl(), e);
+            }
         }
         isDataDeleting = false;
     }
 
-    private void indexSite(Site site, ForkJoinPool pool) {
+    private void indexSite(Site site, int parallelism, boolean resume, boolean incremental) {
         SiteEntity siteEntity = saveSite(site, "", StatusType.INDEXING);
-        PageProcessor pageProcessor = new PageProcessor(pageRepository, siteRepository, lemmaRepository, indexRepository, siteEntity, connect);
-        LinksProcessor links = new LinksProcessor(site.getUrl(), "/", site, pageProcessor, indexOnlyOnePage, new TreeSet<>());
-        linksList.put(links, pool);
-        pool.execute(links);
+        PageProcessor pageProcessor = new PageProcessor(pageRepository, pageTextRepository, pageHtmlRepository,
+                siteRepository, transactionTemplate, indexBatchWriter, lemmaFinder, siteEntity, connect,
+                crawlerSetting.isStoreHtml(), incremental);
+        FrontierCheckpoint checkpoint = createCheckpoint(siteEntity);
+        FrontierCheckpoint.State state = new FrontierCheckpoint.State(List.of(), Set.of());
+        try {
+            if (resume) {
+                state = checkpoint.load();
+            } else {
+                checkpoint.delete();
+            }
+        } catch (IOException e) {
+            log.error("Failed to read crawl checkpoint for site: {}", site.getUrl(), e);
+        }
+        List<String> startPaths = state.pending().isEmpty() ? List.of("/") : state.pending();
+        if (resume) {
+            log.info("Resuming crawl of {} from {} pending pages", site.getUrl(), state.pending().size());
+        }
+
+        UrlFrontier frontier = createFrontier(checkpoint);
+        Set<String> start = new HashSet<>(startPaths);
+        if (!incremental) {
+            frontier.seed(pageRepository.findPathsBySite(siteEntity.getId()).stream()
+                    .filter(path -> !start.contains(path)).toList());
+        }
+        frontier.seed(state.done().stream().filter(path -> !start.contains(path)).toList());
+        startCrawl(site.getUrl(), startPaths, site, pageProcessor, frontier, parallelism);
+    }
+
+    private FrontierCheckpoint createCheckpoint(SiteEntity siteEntity) {
+        return new FrontierCheckpoint(Path.of(crawlerSetting.getCheckpointPath(), "site-" + siteEntity.getId() + ".log"));
+    }
+
+    private UrlFrontier createFrontier(FrontierCheckpoint checkpoint) {
+        VisitedSet visited = crawlerSetting.isBloomFilter()
+                ? new BloomVisitedSet(crawlerSetting.getExpectedUrls(), crawlerSetting.getBloomFalsePositiveRate())
+                : new StripedLongSet(1024);
+        return new UrlFrontier(visited, crawlerSetting.getPolitenessDelay(), checkpoint);
+    }
+
+    private void startCrawl(String rootURL, List<String> URLs, Site site, PageProcessor pageProcessor,
+                            UrlFrontier frontier, int parallelism) {
+        if (crawlerSetting.getMode().equalsIgnoreCase("virtual")) {
+            VirtualThreadCrawler crawl = new VirtualThreadCrawler(rootURL, site, pageProcessor, indexOnlyOnePage,
+                    indexingPipeline, frontier, crawlerSetting.getMaxConcurrentFetches());
+            crawls.add(crawl);
+            crawl.start(URLs);
+        } else {
+            List<LinksProcessor> roots = new ArrayList<>();
+            AtomicInteger pending = new AtomicInteger();
+            for (String URL : URLs) {
+                if (frontier.offer(LinksProcessor.pagePath(rootURL, URL, site))) {
+                    roots.add(new LinksProcessor(rootURL, site, pageProcessor, indexOnlyOnePage, frontier,
+                            indexingPipeline, pending));
+                }
+            }
+            ForkJoinSiteCrawl crawl = new ForkJoinSiteCrawl(site, roots, frontier, new ForkJoinPool(parallelism),
+                    pending);
+            crawls.add(crawl);
+            crawl.start();
+        }
     }
 
     public void stopIndexing() {
@@ -168,13 +342,13 @@ public class MainProcessor extends Thread {
                     indexOnlyOnePage = true;
                     isIndexing = true;
                     SiteEntity siteEntity = saveSite(site, "", null);
-                    linksList.clear();
-                    PageProcessor pageProcessor = new PageProcessor(pageRepository, siteRepository, lemmaRepository, indexRepository, siteEntity, connect);
-                    LinksProcessor links = new LinksProcessor(url, "", site, pageProcessor, indexOnlyOnePage, new TreeSet<>());
-                    ForkJoinPool pool = new ForkJoinPool();
-                    linksList.put(links, pool);
+                    crawls.clear();
+                    PageProcessor pageProcessor = new PageProcessor(pageRepository, pageTextRepository,
+                            pageHtmlRepository, siteRepository, transactionTemplate, indexBatchWriter, lemmaFinder,
+                            siteEntity, connect, crawlerSetting.isStoreHtml(), false);
                     log.info("Adding/updating page {} started", url);
-                    pool.execute(links);
+                    startCrawl(url, List.of(""), site, pageProcessor, createFrontier(null),
+                            Runtime.getRuntime().availableProcessors());
                 }
                 return true;
             }
@@ -2,45 +2,85 @@ package searchengine.services;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.jsoup.safety.Safelist;
+import org.springframework.transaction.support.TransactionTemplate;
 import searchengine.config.JsoupConnect;
 import searchengine.model.PageEntity;
 import searchengine.model.SiteEntity;
 import searchengine.model.StatusType;
-import searchengine.repositories.IndexRepository;
-import searchengine.repositories.LemmaRepository;
+import searchengine.repositories.PageHtmlRepository;
 import searchengine.repositories.PageRepository;
+import searchengine.repositories.PageTextRepository;
 import searchengine.repositories.SiteRepository;
 
+import java.net.HttpURLConnection;
 import java.time.LocalDateTime;
 
 @RequiredArgsConstructor
 @Log4j2
 public class PageProcessor {
     private final PageRepository pageRepository;
+    private final PageTextRepository pageTextRepository;
+    private final PageHtmlRepository pageHtmlRepository;
     private final SiteRepository siteRepository;
+    private final TransactionTemplate transactionTemplate;
 
-    private final LemmaRepository lemmaRepository;
-    private final IndexRepository indexRepository;
+    private final IndexBatchWriter indexBatchWriter;
+    private final LemmaFinder lemmaFinder;
 
     private final SiteEntity siteEntity;
 
     private final JsoupConnect connect;
 
+    /**
+     * Сохранять HTML страниц. Для поиска он не нужен, без него при повторном обходе страницы загружаются
+     * без условных заголовков
+     */
+    private final boolean storeHtml;
 
-    private PageEntity savePage(String path, int code, String content) {
+    /**
+     * Повторный обход: страницы запрашиваются условно, неизменённые страницы не переиндексируются
+     */
+    private final boolean incremental;
+
+
+    /**
+     * Сохраняет страницу, её текст и HTML в одной транзакции, чтобы у страницы не оставался текст
+     * или HTML прежней версии.
+     */
+    private PageEntity savePage(PageEntity pageEntity, String path, FetchedPage page, long contentHash,
+                                LemmaCounts lemmas) {
 
         if (siteEntity != null) {
-            PageEntity pageEntity = pageRepository.findByPathAndSite(path, siteEntity);
-            if (pageEntity == null) {
+            boolean isNew = pageEntity == null;
+            if (isNew) {
                 pageEntity = new PageEntity();
                 pageEntity.setPath(path);
                 pageEntity.setSite(siteEntity);
             }
-            pageEntity.setCode(code);
-            pageEntity.setContent(content);
-            pageRepository.save(pageEntity);
+            pageEntity.setCode(page.statusCode());
+            pageEntity.setEtag(page.etag());
+            pageEntity.setLastModified(page.lastModified());
+            pageEntity.setContentHash(contentHash);
+            pageEntity.setLemmaVector(lemmas.toBytes());
+            pageEntity.setLength(lemmas.total());
+            String text = extractText(page.doc());
+            byte[] compressedText = TextCompressor.compress(text);
+            byte[] positions = lemmaFinder.findPositions(text).toBytes();
+            PageEntity savedPage = pageEntity;
+            transactionTemplate.executeWithoutResult(status -> {
+                pageRepository.save(savedPage);
+                pageTextRepository.upsert(savedPage.getId(), siteEntity.getId(), page.doc().title(),
+                        compressedText, positions);
+                if (storeHtml) {
+                    pageHtmlRepository.upsert(savedPage.getId(), siteEntity.getId(), page.doc().outerHtml());
+                } else if (!isNew) {
+                    pageHtmlRepository.deleteByPage(savedPage.getId());
+                }
+            });
 
             siteEntity.setStatusTime(LocalDateTime.now());
             siteRepository.save(siteEntity);
@@ -51,45 +91,85 @@ public class PageProcessor {
         }
     }
 
-    boolean existsByPath(String path) {
-        return pageRepository.existsPageEntityByPathAndSite(path, siteEntity);
+    /**
+     * Индексирует загруженную страницу. Уже сохранённая страница переиндексируется только при removeOldText,
+     * повторном обходе или если её леммы не удалось записать (content_hash сброшен) и только если изменился
+     * её текст.
+     */
+    public void indexPage(FetchedPage page, boolean removeOldText) {
+        if (page.notModified()) {
+            return;
+        }
+        Document doc = page.doc();
+        String urlPath = pathOf(doc.location());
+        PageEntity pageEntity = pageRepository.findByPathAndSite(urlPath, siteEntity);
+        if (pageEntity != null && !removeOldText && !incremental && pageEntity.getContentHash() != null) {
+            return;
+        }
+        String text = doc.text();
+        long contentHash = XxHash64.hash(text);
+        if (pageEntity != null && pageEntity.getContentHash() != null && pageEntity.getContentHash() == contentHash) {
+            pageEntity.setCode(page.statusCode());
+            pageEntity.setEtag(page.etag());
+            pageEntity.setLastModified(page.lastModified());
+            pageRepository.save(pageEntity);
+            log.debug("Page text not changed: {}", doc.location());
+            return;
+        }
+        LemmaCounts oldLemmas = pageEntity == null ? null : storedLemmas(pageEntity);
+        LemmaCounts lemmas = lemmaFinder.collectLemmas(text);
+        log.info("Indexing page: {}", doc.location());
+        pageEntity = savePage(pageEntity, urlPath, page, contentHash, lemmas);
+        if (pageEntity != null) {
+            indexBatchWriter.add(siteEntity.getId(), pageEntity.getId(), urlPath, lemmas, oldLemmas);
+        }
     }
 
-    public void indexPage(Document doc, boolean removeOldText) {
-
-        String urlPath = deletePrefix(doc.location())
-                .replace(deletePrefix(siteEntity.getUrl()), "");
-        if (!existsByPath(urlPath) || removeOldText) {
-            String oldText = "";
-            PageEntity pageEntity;
-            if (removeOldText) {
-                pageEntity = pageRepository.findByPathAndSite(urlPath, siteEntity);
-                if (pageEntity != null) {
-                    oldText = Jsoup.parse(pageEntity.getContent()).text()
-                            .replaceAll("[^А-Яа-яЁё\\d\\s,.!]+", " ")
-                            .replaceAll("\\s+", " ");
-                }
-            }
-            log.info("Indexing page: {}", doc.location());
-            pageEntity = savePage(urlPath, doc.connection().response().statusCode(), doc.outerHtml());
-            LemmaProcessor lemmaProcessor = new LemmaProcessor(pageEntity, lemmaRepository, indexRepository, oldText,
-                    doc.text(), siteEntity, urlPath);
-            if (!oldText.isEmpty()) {
-                lemmaProcessor.deleteLemmas();
-            }
-            lemmaProcessor.saveLemmas();
+    /**
+     * Леммы, с которыми страница сейчас проиндексирована. У страниц, сохранённых без вектора лемм,
+     * они собираются заново из сохранённого HTML.
+     */
+    private LemmaCounts storedLemmas(PageEntity pageEntity) {
+        if (pageEntity.getLemmaVector() != null) {
+            return LemmaCounts.fromBytes(pageEntity.getLemmaVector());
         }
+        String html = pageHtmlRepository.findContent(pageEntity.getId());
+        return html == null ? new LemmaCounts() : lemmaFinder.collectLemmas(Jsoup.parse(html).text());
     }
 
-    public Document getDocFromUrl(String url) {
+    /**
+     * Загружает страницу. При повторном обходе уже сохранённая страница запрашивается с If-None-Match и
+     * If-Modified-Since, и если сервер ответил 304, документ разбирается из сохранённого HTML - он нужен
+     * только для ссылок.
+     *
+     * @return страница или null, если её не удалось загрузить
+     */
+    public FetchedPage fetchPage(String url) {
+        PageEntity known = incremental ? pageRepository.findByPathAndSite(pathOf(url), siteEntity) : null;
+        String knownHtml = known == null ? null : pageHtmlRepository.findContent(known.getId());
+        if (knownHtml == null) {
+            known = null;
+        }
         try {
-            return Jsoup.connect(url)
+            Connection connection = Jsoup.connect(url)
                     .userAgent(connect.getUserAgent())
                     .referrer(connect.getReferrer())
                     .timeout(connect.getTimeout())
                     .ignoreHttpErrors(connect.isIgnoreHttpErrors())
-                    .followRedirects(connect.isFollowRedirects())
-                    .get();
+                    .followRedirects(connect.isFollowRedirects());
+            if (known != null && known.getEtag() != null) {
+                connection.header("If-None-Match", known.getEtag());
+            }
+            if (known != null && known.getLastModified() != null) {
+                connection.header("If-Modified-Since", known.getLastModified());
+            }
+            Connection.Response response = connection.execute();
+            if (response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED && known != null) {
+                return new FetchedPage(Jsoup.parse(knownHtml, url), known.getCode(), true,
+                        known.getEtag(), known.getLastModified());
+            }
+            return new FetchedPage(response.parse(), response.statusCode(), false,
+                    response.header("ETag"), response.header("Last-Modified"));
         } catch (Exception e) {
             if (e.getClass().getName().contains("Timeout")) {
                 siteEntity.setStatus(StatusType.FAILED);
@@ -101,6 +181,17 @@ public class PageProcessor {
         }
     }
 
+    /**
+     * Текст страницы для сниппетов: HTML-символы экранированы, пробелы схлопнуты
+     */
+    public static String extractText(Document doc) {
+        return Jsoup.clean(doc.text(), Safelist.simpleText()).replaceAll("\\s+", " ");
+    }
+
+    private String pathOf(String url) {
+        return deletePrefix(url).replace(deletePrefix(siteEntity.getUrl()), "");
+    }
+
     public static String deletePrefix(String path) {
         return path.toLowerCase()
                 .replaceAll("https://www.", "")
@@ -108,4 +199,10 @@ public class PageProcessor {
                 .replaceAll("https://", "")
                 .replaceAll("http://", "");
     }
+
+    /**
+     * @param notModified сервер ответил 304, doc разобран из сохранённой страницы
+     */
+    public record FetchedPage(Document doc, int statusCode, boolean notModified, String etag, String lastModified) {
+    }
 }
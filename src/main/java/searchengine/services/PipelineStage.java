@@ -0,0 +1,78 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Стадия конвейера индексации: пул потоков и ограниченная очередь задач перед ним. Когда очередь
+ * заполнена, submit ждёт освобождения места - так медленная стадия притормаживает предыдущую.
+ * <p>
+ * Метрики: indexing.stage.queued и indexing.stage.active - задачи в очереди и в работе,
+ * indexing.stage.processed и indexing.stage.duration - выполненные задачи и время их выполнения.
+ */
+public class PipelineStage {
+    @Getter
+    private final String name;
+    private final ExecutorService executor;
+    private final Semaphore capacity;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final Counter processed;
+    private final Timer duration;
+
+    /**
+     * @param capacity сколько задач может одновременно ждать и выполняться на стадии
+     */
+    public PipelineStage(String name, ExecutorService executor, int capacity, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.executor = executor;
+        this.capacity = new Semaphore(capacity);
+        Gauge.builder("indexing.stage.queued", queued, AtomicInteger::get)
+                .tag("stage", name).register(meterRegistry);
+        Gauge.builder("indexing.stage.active", active, AtomicInteger::get)
+                .tag("stage", name).register(meterRegistry);
+        processed = Counter.builder("indexing.stage.processed").tag("stage", name).register(meterRegistry);
+        duration = Timer.builder("indexing.stage.duration").tag("stage", name).register(meterRegistry);
+    }
+
+    public void submit(Runnable task) throws InterruptedException {
+        capacity.acquire();
+        queued.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+                try {
+                    duration.record(task);
+                } finally {
+                    active.decrementAndGet();
+                    processed.increment();
+                    capacity.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            queued.decrementAndGet();
+            capacity.release();
+            throw e;
+        }
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,60 @@
+package searchengine.services;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+
+/**
+ * Переносы схемы, которые ddl-auto: update не делает сам: он только добавляет таблицы и столбцы.
+ * <p>
+ * HTML страниц раньше хранился в столбце page.content MEDIUMTEXT NOT NULL, теперь - в таблице page_html.
+ * Старый столбец не даёт вставлять страницы без content в строгом режиме MySQL, поэтому при старте HTML
+ * переносится в page_html диапазонами id, а столбец удаляется.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+@Log4j2
+public class SchemaMigration {
+    private static final int PAGE_ID_RANGE = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public SchemaMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void migrate() {
+        movePageContent();
+    }
+
+    private void movePageContent() {
+        Integer columns = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.columns"
+                        + " WHERE table_schema = DATABASE() AND table_name = 'page' AND column_name = 'content'",
+                Integer.class);
+        if (columns == null || columns == 0) {
+            return;
+        }
+        log.info("Moving page.content to page_html");
+        // до переноса новые страницы без content не вставляются
+        jdbcTemplate.execute("ALTER TABLE page MODIFY content MEDIUMTEXT NULL");
+        Map<String, Object> range = jdbcTemplate.queryForMap("SELECT MIN(id) AS min_id, MAX(id) AS max_id FROM page");
+        if (range.get("min_id") != null) {
+            long minId = ((Number) range.get("min_id")).longValue();
+            long maxId = ((Number) range.get("max_id")).longValue();
+            long moved = 0;
+            for (long from = minId; from <= maxId; from += PAGE_ID_RANGE) {
+                // HTML, уже записанный новым кодом в page_html, новее
+                moved += jdbcTemplate.update("INSERT INTO page_html (page_id, site_id, content)"
+                        + " SELECT id, site_id, content FROM page WHERE id >= ? AND id < ? AND content IS NOT NULL"
+                        + " ON DUPLICATE KEY UPDATE page_id = page_id", from, from + PAGE_ID_RANGE);
+            }
+            log.info("Moved HTML of {} pages to page_html", moved);
+        }
+        jdbcTemplate.execute("ALTER TABLE page DROP COLUMN content");
+    }
+}
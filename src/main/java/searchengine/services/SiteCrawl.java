@@ -0,0 +1,24 @@
+package searchengine.services;
+
+import searchengine.config.Site;
+import searchengine.services.frontier.UrlFrontier;
+
+/**
+ * Запущенный обход одного сайта.
+ */
+public interface SiteCrawl {
+    Site getSite();
+
+    /**
+     * @return true, если все страницы обхода загружены и проиндексированы или обход остановлен и
+     * ни одна страница не обрабатывается; необработанные пути остаются в очереди границы
+     */
+    boolean isDone();
+
+    UrlFrontier getFrontier();
+
+    /**
+     * Прекращает раздачу страниц обхода
+     */
+    void shutdown();
+}
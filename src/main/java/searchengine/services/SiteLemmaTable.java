@@ -0,0 +1,161 @@
+package searchengine.services;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Словарь лемм одного сайта: открытая адресация по интернированным строкам
+ * и примитивные массивы id, frequency и maxRank вместо объектов LemmaEntity.
+ */
+class SiteLemmaTable {
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int[] frequencies = new int[INITIAL_CAPACITY];
+    private int[] maxRanks = new int[INITIAL_CAPACITY];
+    private int size;
+
+    int getId(String lemma) {
+        rwLock.readLock().lock();
+        try {
+            int slot = slotOf(lemma);
+            return slot < 0 ? -1 : ids[slot];
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    int getFrequency(String lemma) {
+        rwLock.readLock().lock();
+        try {
+            int slot = slotOf(lemma);
+            return slot < 0 ? 0 : frequencies[slot];
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    LemmaDictionary.LemmaInfo find(String lemma) {
+        rwLock.readLock().lock();
+        try {
+            int slot = slotOf(lemma);
+            return slot < 0 ? null : new LemmaDictionary.LemmaInfo(ids[slot], frequencies[slot], maxRanks[slot]);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param maxRank наибольший rank леммы среди добавленных страниц; известный maxRank только растёт,
+     *                неизвестный (0) остаётся неизвестным
+     */
+    void add(String lemma, int id, int frequencyDelta, int maxRank) {
+        rwLock.writeLock().lock();
+        try {
+            int slot = slotOf(lemma);
+            if (slot >= 0) {
+                ids[slot] = id;
+                frequencies[slot] += frequencyDelta;
+                if (maxRanks[slot] > 0) {
+                    maxRanks[slot] = Math.max(maxRanks[slot], maxRank);
+                }
+                return;
+            }
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize();
+            }
+            slot = freeSlot(keys, lemma);
+            keys[slot] = lemma.intern();
+            ids[slot] = id;
+            frequencies[slot] = frequencyDelta;
+            maxRanks[slot] = maxRank;
+            size++;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    void decrement(String lemma, int count) {
+        rwLock.writeLock().lock();
+        try {
+            int slot = slotOf(lemma);
+            if (slot >= 0) {
+                frequencies[slot] = Math.max(0, frequencies[slot] - count);
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Обходит леммы с ненулевой частотой под блокировкой чтения
+     */
+    void forEach(ObjIntConsumer<String> action) {
+        rwLock.readLock().lock();
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null && frequencies[i] > 0) {
+                    action.accept(keys[i], frequencies[i]);
+                }
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        rwLock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    private int slotOf(String lemma) {
+        int mask = keys.length - 1;
+        for (int slot = hash(lemma) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot].equals(lemma)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void resize() {
+        String[] newKeys = new String[keys.length * 2];
+        int[] newIds = new int[newKeys.length];
+        int[] newFrequencies = new int[newKeys.length];
+        int[] newMaxRanks = new int[newKeys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                int slot = freeSlot(newKeys, keys[i]);
+                newKeys[slot] = keys[i];
+                newIds[slot] = ids[i];
+                newFrequencies[slot] = frequencies[i];
+                newMaxRanks[slot] = maxRanks[i];
+            }
+        }
+        keys = newKeys;
+        ids = newIds;
+        frequencies = newFrequencies;
+        maxRanks = newMaxRanks;
+    }
+
+    private static int freeSlot(String[] table, String lemma) {
+        int mask = table.length - 1;
+        int slot = hash(lemma) & mask;
+        while (table[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(String lemma) {
+        int h = lemma.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,63 @@
+package searchengine.services;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сжатие текста страниц Deflate для хранения в базе.
+ */
+public final class TextCompressor {
+    private static final int BUFFER_SIZE = 8192;
+
+    private TextCompressor() {
+    }
+
+    public static byte[] compress(String text) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(text.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(text.length() / 2 + 16);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static String decompress(byte[] bytes) {
+        return decompress(bytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Распаковывает начало текста: не меньше maxBytes байт UTF-8, если текст длиннее.
+     * Обрезанный в конце символ отбрасывается.
+     */
+    public static String decompress(byte[] bytes, int maxBytes) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(bytes.length * 3, maxBytes) + 16);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished() && out.size() < maxBytes) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated compressed text");
+                }
+                out.write(buffer, 0, length);
+            }
+            String text = out.toString(StandardCharsets.UTF_8);
+            return inflater.finished() || text.isEmpty() ? text : text.substring(0, text.length() - 1);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted compressed text", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
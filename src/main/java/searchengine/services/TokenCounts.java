@@ -0,0 +1,129 @@
+package searchengine.services;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Однопроходный токенизатор русского текста. Слова - непрерывные последовательности букв а-я (регистр
+ * не важен), всё остальное - разделители. Символы различных слов складываются в один общий массив,
+ * повторы слова строк не создают, а только увеличивают счётчик.
+ */
+class TokenCounts {
+    private char[] chars;
+    private int charsLength;
+    private int pendingLength;
+    private int pendingHash;
+
+    private int[] offsets;
+    private int[] lengths;
+    private int[] hashes;
+    private int[] counts;
+    private int[] table;
+    private int size;
+
+    private TokenCounts(int expectedTokens) {
+        int capacity = Integer.highestOneBit(Math.max(expectedTokens, 8) * 2 - 1) << 1;
+        chars = new char[capacity * 8];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+        table = new int[capacity * 2];
+    }
+
+    static TokenCounts of(CharSequence text) {
+        TokenCounts tokens = new TokenCounts(text.length() / 32);
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 'А' && c <= 'Я') {
+                c += 'а' - 'А';
+            }
+            if (c >= 'а' && c <= 'я') {
+                tokens.append(c);
+            } else {
+                tokens.commit();
+            }
+        }
+        tokens.commit();
+        return tokens;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(ObjIntConsumer<String> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(new String(chars, offsets[i], lengths[i]), counts[i]);
+        }
+    }
+
+    private void append(char c) {
+        if (charsLength + pendingLength == chars.length) {
+            char[] newChars = new char[chars.length * 2];
+            System.arraycopy(chars, 0, newChars, 0, charsLength + pendingLength);
+            chars = newChars;
+        }
+        chars[charsLength + pendingLength++] = c;
+        pendingHash = 31 * pendingHash + c;
+    }
+
+    private void commit() {
+        if (pendingLength == 0) {
+            return;
+        }
+        int mask = table.length - 1;
+        int slot = (pendingHash ^ (pendingHash >>> 16)) & mask;
+        for (int token = table[slot] - 1; token >= 0; token = table[slot] - 1) {
+            if (hashes[token] == pendingHash && samePending(token)) {
+                counts[token]++;
+                pendingLength = 0;
+                pendingHash = 0;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == offsets.length) {
+            growTokens();
+            commit();
+            return;
+        }
+        offsets[size] = charsLength;
+        lengths[size] = pendingLength;
+        hashes[size] = pendingHash;
+        counts[size] = 1;
+        table[slot] = ++size;
+        charsLength += pendingLength;
+        pendingLength = 0;
+        pendingHash = 0;
+    }
+
+    private boolean samePending(int token) {
+        if (lengths[token] != pendingLength) {
+            return false;
+        }
+        for (int i = 0, offset = offsets[token]; i < pendingLength; i++) {
+            if (chars[offset + i] != chars[charsLength + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growTokens() {
+        int capacity = offsets.length * 2;
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        table = new int[capacity * 2];
+        int mask = table.length - 1;
+        for (int token = 0; token < size; token++) {
+            int slot = (hashes[token] ^ (hashes[token] >>> 16)) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = token + 1;
+        }
+    }
+}
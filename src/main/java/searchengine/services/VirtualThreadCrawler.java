@@ -0,0 +1,183 @@
+package searchengine.services;
+
+import lombok.extern.log4j.Log4j2;
+import searchengine.config.Site;
+import searchengine.services.frontier.UrlFrontier;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Обход сайта в режиме virtual. Найденные пути попадают в очередь {@link UrlFrontier}, из неё страницы
+ * в порядке обнаружения раздаются в стадию fetch, одновременно загружается не больше maxConcurrentFetches
+ * страниц сайта. Загруженные страницы передаются в стадию index {@link IndexingPipeline};
+ * если она не успевает, поток загрузки ждёт места в её очереди.
+ * <p>
+ * Если стадия отказала в приёме задачи или поток прерван, путь возвращается в очередь границы и обход
+ * перестаёт раздавать страницы; оставшиеся в очереди пути загружаются при продолжении обхода.
+ */
+@Log4j2
+public class VirtualThreadCrawler implements SiteCrawl {
+    private final String rootURL;
+    private final Site site;
+    private final PageProcessor pageProcessor;
+    private final boolean indexOnlyOnePage;
+    private final IndexingPipeline pipeline;
+    private final UrlFrontier frontier;
+    private final Semaphore fetchPermits;
+    /**
+     * Пути в очереди и задачи в стадиях
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+    /**
+     * Задачи в стадиях
+     */
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile boolean stopped;
+
+    public VirtualThreadCrawler(String rootURL, Site site, PageProcessor pageProcessor, boolean indexOnlyOnePage,
+                                IndexingPipeline pipeline, UrlFrontier frontier, int maxConcurrentFetches) {
+        this.rootURL = rootURL;
+        this.site = site;
+        this.pageProcessor = pageProcessor;
+        this.indexOnlyOnePage = indexOnlyOnePage;
+        this.pipeline = pipeline;
+        this.frontier = frontier;
+        this.fetchPermits = new Semaphore(Math.max(1, maxConcurrentFetches));
+    }
+
+    public void start(List<String> URLs) {
+        URLs.forEach(this::offer);
+    }
+
+    @Override
+    public Site getSite() {
+        return site;
+    }
+
+    @Override
+    public boolean isDone() {
+        return pending.get() == 0 || stopped && running.get() == 0;
+    }
+
+    @Override
+    public UrlFrontier getFrontier() {
+        return frontier;
+    }
+
+    @Override
+    public void shutdown() {
+        stopped = true;
+    }
+
+    private void offer(String URL) {
+        if (frontier.offer(LinksProcessor.pagePath(rootURL, URL, site))) {
+            pending.incrementAndGet();
+            dispatch();
+        }
+    }
+
+    /**
+     * Отправляет страницы из очереди на загрузку, пока есть свободные разрешения. Освободивший разрешение
+     * поток сам вызывает dispatch, поэтому добавленный в очередь путь не может остаться без загрузки.
+     */
+    private void dispatch() {
+        while (!stopped && !frontier.isEmpty() && fetchPermits.tryAcquire()) {
+            String path = frontier.poll();
+            if (path == null) {
+                fetchPermits.release();
+            } else {
+                fetch(path);
+            }
+        }
+    }
+
+    private void fetch(String path) {
+        running.incrementAndGet();
+        try {
+            pipeline.getFetchStage().submit(() -> {
+                boolean requeued = false;
+                try {
+                    crawl(path);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    abandon(path);
+                    requeued = true;
+                } catch (RejectedExecutionException e) {
+                    abandon(path);
+                    requeued = true;
+                } catch (Exception e) {
+                    log.error("Failed to crawl {}{}", rootURL, path, e);
+                } finally {
+                    if (!requeued) {
+                        pending.decrementAndGet();
+                    }
+                    fetchPermits.release();
+                    running.decrementAndGet();
+                    dispatch();
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandon(path);
+            fetchPermits.release();
+            running.decrementAndGet();
+        } catch (RejectedExecutionException e) {
+            abandon(path);
+            fetchPermits.release();
+            running.decrementAndGet();
+        }
+    }
+
+    /**
+     * Возвращает необработанный путь в очередь и останавливает раздачу страниц. Путь остаётся в pending,
+     * поэтому обход считается завершённым, только когда в стадиях не осталось его задач.
+     */
+    private void abandon(String path) {
+        frontier.requeue(path);
+        if (!stopped) {
+            stopped = true;
+            log.warn("Crawl of {} stopped, pending pages are left for resume", rootURL);
+        }
+    }
+
+    private void crawl(String path) throws InterruptedException {
+        if (!MainProcessor.isIndexing && !indexOnlyOnePage) {
+            return;
+        }
+        String validURL = rootURL + path;
+        frontier.awaitPoliteness(validURL);
+        PageProcessor.FetchedPage page = pageProcessor.fetchPage(validURL);
+        if (page == null) {
+            frontier.done(path);
+            return;
+        }
+
+        if (!indexOnlyOnePage) {
+            for (String href : LinksProcessor.collectLinks(page.doc(), site)) {
+                offer(href);
+            }
+        }
+        pending.incrementAndGet();
+        running.incrementAndGet();
+        try {
+            pipeline.getIndexStage().submit(() -> {
+                try {
+                    pageProcessor.indexPage(page, indexOnlyOnePage);
+                } catch (Exception e) {
+                    log.error("Failed to index {}", validURL, e);
+                } finally {
+                    frontier.done(path);
+                    pending.decrementAndGet();
+                    running.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException | InterruptedException e) {
+            pending.decrementAndGet();
+            running.decrementAndGet();
+            throw e;
+        }
+    }
+}
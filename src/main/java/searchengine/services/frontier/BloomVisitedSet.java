@@ -0,0 +1,53 @@
+package searchengine.services.frontier;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Фильтр Блума вместо точного множества для сайтов на миллионы URL: около 14 бит на URL при 0,1%
+ * ложных срабатываний против 128 бит у точного множества. Ложное срабатывание означает, что новая
+ * страница будет принята за посещённую и пропущена. Работает без блокировок.
+ */
+public class BloomVisitedSet implements VisitedSet {
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final AtomicLong size = new AtomicLong();
+
+    public BloomVisitedSet(long expectedSize, double falsePositiveRate) {
+        long n = Math.max(expectedSize, 1);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        bits = new AtomicLongArray((int) Math.min((m + 63) / 64, Integer.MAX_VALUE - 8));
+        bitCount = bits.length() * 64L;
+        hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    @Override
+    public boolean add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        boolean added = false;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word = bits.get(index);
+            while ((word & mask) == 0) {
+                if (bits.compareAndSet(index, word, word | mask)) {
+                    added = true;
+                    break;
+                }
+                word = bits.get(index);
+            }
+        }
+        if (added) {
+            size.incrementAndGet();
+        }
+        return added;
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+}
@@ -0,0 +1,122 @@
+package searchengine.services.frontier;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
+
+/**
+ * Журнал границы обхода сайта - текстовый файл, в который только дописываются строки:
+ * "+путь" - путь поставлен в обход, "-путь" - страница загружена и проиндексирована,
+ * "!путь" - леммы страницы не удалось записать, при продолжении её нужно обработать заново независимо
+ * от порядка записей.
+ * Записи копятся в памяти и дописываются в файл при {@link #write()}.
+ * По журналу восстанавливаются пути, которые были поставлены в обход, но не обработаны.
+ */
+public class FrontierCheckpoint {
+    private static final char QUEUED = '+';
+    private static final char DONE = '-';
+    private static final char FAILED = '!';
+
+    private final Path file;
+    private final Queue<String> records = new ConcurrentLinkedQueue<>();
+
+    public FrontierCheckpoint(Path file) {
+        this.file = file;
+    }
+
+    public void queued(String path) {
+        records.add(QUEUED + path);
+    }
+
+    public void done(String path) {
+        records.add(DONE + path);
+    }
+
+    /**
+     * Сразу дописывает в файл пути страниц, леммы которых не удалось записать
+     */
+    public void appendFailed(Collection<String> paths) throws IOException {
+        append(paths.stream().map(path -> FAILED + path).toList());
+    }
+
+    /**
+     * Снимок накопленных записей. Записи, добавленные после вызова, попадут в следующий снимок.
+     */
+    public List<String> drain() {
+        List<String> drained = new ArrayList<>();
+        String record;
+        while ((record = records.poll()) != null) {
+            drained.add(record);
+        }
+        return drained;
+    }
+
+    public void write() throws IOException {
+        append(drain());
+    }
+
+    public void append(List<String> drained) throws IOException {
+        if (drained.isEmpty()) {
+            return;
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String record : drained) {
+                writer.write(record);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Читает журнал и переписывает его, оставляя только необработанные пути.
+     *
+     * @return состояние обхода на момент последней записи журнала
+     */
+    public State load() throws IOException {
+        Set<String> pending = new LinkedHashSet<>();
+        Set<String> done = new HashSet<>();
+        Set<String> failed = new HashSet<>();
+        if (Files.exists(file)) {
+            try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+                lines.filter(line -> !line.isEmpty()).forEach(line -> {
+                    String path = line.substring(1);
+                    if (line.charAt(0) == QUEUED) {
+                        pending.add(path);
+                    } else if (line.charAt(0) == DONE) {
+                        pending.remove(path);
+                        done.add(path);
+                    } else if (line.charAt(0) == FAILED) {
+                        failed.add(path);
+                    }
+                });
+            }
+            pending.addAll(failed);
+            done.removeAll(failed);
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, pending.stream().map(path -> QUEUED + path).toList(), StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return new State(new ArrayList<>(pending), done);
+    }
+
+    public void delete() throws IOException {
+        records.clear();
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * @param pending пути, поставленные в обход и не обработанные, в порядке постановки
+     * @param done    обработанные пути
+     */
+    public record State(List<String> pending, Set<String> done) {
+    }
+}
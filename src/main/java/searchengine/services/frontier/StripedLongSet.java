@@ -0,0 +1,78 @@
+package searchengine.services.frontier;
+
+/**
+ * Точное множество хэшей: полосы с открытой адресацией по long[], каждая под своей блокировкой,
+ * так что потоки обхода редко ждут друг друга. Значение 0 означает пустую ячейку, хэш 0 хранится как 1.
+ */
+public class StripedLongSet implements VisitedSet {
+    private static final int STRIPES = 64;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public StripedLongSet(int expectedSize) {
+        int stripeSize = Math.max(16, expectedSize / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeSize);
+        }
+    }
+
+    @Override
+    public boolean add(long hash) {
+        long key = hash == 0 ? 1 : hash;
+        Stripe stripe = stripes[(int) (key >>> 58)];
+        synchronized (stripe) {
+            return stripe.add(key);
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private static class Stripe {
+        private long[] keys;
+        private int size;
+
+        Stripe(int expectedSize) {
+            keys = new long[Integer.highestOneBit(Math.max(expectedSize * 2, 16) - 1) << 1];
+        }
+
+        boolean add(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            if (++size * 2 > keys.length) {
+                resize();
+            }
+            return true;
+        }
+
+        private void resize() {
+            long[] old = keys;
+            keys = new long[old.length * 2];
+            int mask = keys.length - 1;
+            for (long key : old) {
+                if (key != 0) {
+                    int slot = (int) key & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = key;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package searchengine.services.frontier;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Граница обхода сайта: множество уже встреченных путей страниц и очередь путей на загрузку в порядке
+ * обнаружения (обход в ширину). Пути хранятся 64-битными хэшами.
+ * {@link #awaitPoliteness(String)} выдерживает между запросами к одному хосту не меньше politenessDelay мс.
+ */
+public class UrlFrontier {
+    private final VisitedSet visited;
+    private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+    private final long politenessDelayNanos;
+    private final Map<String, AtomicLong> nextRequestTimes = new ConcurrentHashMap<>();
+    private final FrontierCheckpoint checkpoint;
+
+    /**
+     * @param checkpoint журнал обхода или null, если обход не нужно уметь продолжать
+     */
+    public UrlFrontier(VisitedSet visited, long politenessDelay, FrontierCheckpoint checkpoint) {
+        this.visited = visited;
+        this.politenessDelayNanos = TimeUnit.MILLISECONDS.toNanos(politenessDelay);
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Отмечает пути уже сохранённых страниц сайта, чтобы не проверять каждую ссылку запросом к базе.
+     */
+    public void seed(Collection<String> paths) {
+        for (String path : paths) {
+            visited.add(hash(path));
+        }
+    }
+
+    /**
+     * @return true, если путь встретился впервые
+     */
+    public boolean markVisited(String path) {
+        if (!visited.add(hash(path))) {
+            return false;
+        }
+        if (checkpoint != null) {
+            checkpoint.queued(path);
+        }
+        return true;
+    }
+
+    /**
+     * Отмечает, что страница загружена и проиндексирована и при продолжении обхода её загружать не нужно.
+     */
+    public void done(String path) {
+        if (checkpoint != null) {
+            checkpoint.done(path);
+        }
+    }
+
+    public FrontierCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Ставит путь в очередь, если он встретился впервые.
+     *
+     * @return true, если путь добавлен в очередь
+     */
+    public boolean offer(String path) {
+        if (!markVisited(path)) {
+            return false;
+        }
+        queue.add(path);
+        return true;
+    }
+
+    /**
+     * Возвращает в очередь путь, взятый из неё, но не отданный на загрузку. Путь уже отмечен в журнале
+     * как поставленный в обход, поэтому при продолжении обхода он будет загружен.
+     */
+    public void requeue(String path) {
+        queue.add(path);
+    }
+
+    public String poll() {
+        return queue.poll();
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public long getVisitedCount() {
+        return visited.size();
+    }
+
+    public void awaitPoliteness(String url) throws InterruptedException {
+        if (politenessDelayNanos <= 0) {
+            return;
+        }
+        String host = hostOf(url);
+        AtomicLong nextRequestTime = nextRequestTimes.computeIfAbsent(host, h -> new AtomicLong(System.nanoTime()));
+        long now = System.nanoTime();
+        long slot = nextRequestTime.getAndAccumulate(now, (next, current) -> Math.max(next, current) + politenessDelayNanos);
+        long wait = Math.max(slot, now) - now;
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? "" : host;
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    /**
+     * FNV-1a по UTF-8 байтам с финальным перемешиванием MurmurHash3.
+     */
+    static long hash(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,13 @@
+package searchengine.services.frontier;
+
+/**
+ * Множество 64-битных хэшей посещённых URL.
+ */
+public interface VisitedSet {
+    /**
+     * @return true, если хэша в множестве не было
+     */
+    boolean add(long hash);
+
+    long size();
+}
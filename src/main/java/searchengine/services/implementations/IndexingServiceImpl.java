@@ -4,16 +4,28 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.config.CrawlerSetting;
 import searchengine.config.JsoupConnect;
 import searchengine.config.SitesList;
 import searchengine.dto.indexing.ErrorResponse;
 import searchengine.dto.indexing.IndexingResponse;
-import searchengine.repositories.IndexRepository;
 import searchengine.repositories.LemmaRepository;
+import searchengine.repositories.PageHtmlRepository;
 import searchengine.repositories.PageRepository;
+import searchengine.repositories.PageTextRepository;
 import searchengine.repositories.SiteRepository;
+import searchengine.services.DocumentStats;
+import searchengine.services.IndexBatchWriter;
+import searchengine.services.IndexingPipeline;
+import searchengine.services.LemmaDictionary;
+import searchengine.services.LemmaFinder;
 import searchengine.services.MainProcessor;
+import searchengine.services.interfaces.IndexStorage;
 import searchengine.services.interfaces.IndexingService;
+import searchengine.services.search.LemmaCompletion;
+import searchengine.services.search.SpellingCorrector;
+import searchengine.services.search.SearchResultCache;
 
 
 @Service
@@ -25,20 +37,36 @@ public class IndexingServiceImpl implements IndexingService {
     private final SiteRepository siteRepository;
     @Autowired
     private final PageRepository pageRepository;
+    private final PageTextRepository pageTextRepository;
+    private final PageHtmlRepository pageHtmlRepository;
     @Autowired
     private final LemmaRepository lemmaRepository;
     @Autowired
-    private final IndexRepository indexRepository;
+    private final IndexStorage indexStorage;
     private final JsoupConnect connect;
+    private final IndexBatchWriter indexBatchWriter;
+    private final LemmaDictionary lemmaDictionary;
+    private final DocumentStats documentStats;
+    private final LemmaCompletion lemmaCompletion;
+    private final SpellingCorrector spellingCorrector;
+    private final LemmaFinder lemmaFinder;
+    private final SearchResultCache searchResultCache;
+    private final CrawlerSetting crawlerSetting;
+    private final IndexingPipeline indexingPipeline;
+    private final TransactionTemplate transactionTemplate;
 
     private MainProcessor mainProcessor;
 
-    public IndexingResponse startIndexing() {
+    public IndexingResponse startIndexing(boolean resume, boolean incremental) {
 
         if (!mainProcessor.isIndexing) {
-            mainProcessor = new MainProcessor(sites, siteRepository, pageRepository, lemmaRepository,indexRepository, connect);
+            mainProcessor = new MainProcessor(sites, siteRepository, pageRepository, pageTextRepository,
+                    pageHtmlRepository, lemmaRepository, indexStorage, indexBatchWriter, lemmaDictionary,
+                    documentStats, lemmaCompletion, spellingCorrector, lemmaFinder, connect, crawlerSetting,
+                    indexingPipeline, transactionTemplate);
             mainProcessor.start();
-            mainProcessor.startIndexing();
+            mainProcessor.startIndexing(resume, incremental);
+            searchResultCache.invalidateAll();
             return new IndexingResponse();
         } else {
             ErrorResponse response = new ErrorResponse();
@@ -60,7 +88,10 @@ public class IndexingServiceImpl implements IndexingService {
 
     public IndexingResponse indexPage(String url) {
         if (!mainProcessor.isIndexing) {
-            mainProcessor = new MainProcessor(sites, siteRepository, pageRepository, lemmaRepository, indexRepository, connect);
+            mainProcessor = new MainProcessor(sites, siteRepository, pageRepository, pageTextRepository,
+                    pageHtmlRepository, lemmaRepository, indexStorage, indexBatchWriter, lemmaDictionary,
+                    documentStats, lemmaCompletion, spellingCorrector, lemmaFinder, connect, crawlerSetting,
+                    indexingPipeline, transactionTemplate);
             mainProcessor.start();
             if (mainProcessor.indexPage(url)) {
                 return new IndexingResponse();
@@ -0,0 +1,65 @@
+package searchengine.services.implementations;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import searchengine.config.BatchSetting;
+import searchengine.repositories.IndexBatchRepository;
+import searchengine.repositories.IndexBatchRepository.IndexRow;
+import searchengine.repositories.IndexRepository;
+import searchengine.repositories.PostingRepository;
+import searchengine.services.interfaces.IndexStorage;
+import searchengine.services.interfaces.IndexStorage.PageUpdate;
+import searchengine.services.search.PostingList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Service
+@ConditionalOnProperty(prefix = "index-storage", name = "type", havingValue = "mysql", matchIfMissing = true)
+@RequiredArgsConstructor
+public class MysqlIndexStorage implements IndexStorage {
+    private final IndexRepository indexRepository;
+    private final IndexBatchRepository batchRepository;
+    private final PostingRepository postingRepository;
+    private final BatchSetting setting;
+
+    @Override
+    public void savePostings(int siteId, List<IndexRow> rows) {
+        batchRepository.insertIndexes(rows, setting.getJdbcBatchSize());
+    }
+
+    @Override
+    public void updatePages(int siteId, List<PageUpdate> pages) {
+        List<IndexRow> changedRows = new ArrayList<>();
+        for (PageUpdate page : pages) {
+            if (!page.removedLemmaIds().isEmpty()) {
+                batchRepository.deleteIndexes(page.pageId(), page.removedLemmaIds());
+            }
+            changedRows.addAll(page.changedRows());
+        }
+        if (!changedRows.isEmpty()) {
+            batchRepository.upsertIndexes(changedRows, setting.getJdbcBatchSize());
+        }
+    }
+
+    @Override
+    public void deletePage(int siteId, int pageId) {
+        indexRepository.deleteByPage(pageId);
+    }
+
+    @Override
+    public void deleteSite(int siteId) {
+        indexRepository.deleteAllBySite(siteId);
+    }
+
+    @Override
+    public PostingList findPostings(int siteId, int lemmaId, int expectedSize) {
+        return postingRepository.findByLemma(lemmaId, expectedSize);
+    }
+
+    @Override
+    public PostingList findPostings(int siteId, int lemmaId, int[] pageIds) {
+        return postingRepository.findByLemmaAndPages(lemmaId, pageIds);
+    }
+}
@@ -4,27 +4,48 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.safety.Safelist;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import searchengine.config.SearchSetting;
 import searchengine.config.Site;
 import searchengine.config.SitesList;
 import searchengine.dto.search.DetailedSearchItem;
 import searchengine.dto.search.ErrorSearchResponse;
 import searchengine.dto.search.SearchResponse;
+import searchengine.dto.search.ShardHitsResponse;
+import searchengine.dto.search.ShardPagesRequest;
+import searchengine.dto.search.ShardSearchRequest;
+import searchengine.dto.search.ShardStatsResponse;
 import searchengine.dto.search.SuccessResponse;
-import searchengine.model.IndexEntity;
-import searchengine.model.LemmaEntity;
+import searchengine.dto.search.SuggestResponse;
 import searchengine.model.PageEntity;
 import searchengine.model.SiteEntity;
-import searchengine.repositories.IndexRepository;
-import searchengine.repositories.LemmaRepository;
+import searchengine.repositories.PageRepository;
+import searchengine.repositories.PageHtmlRepository;
+import searchengine.repositories.PageTextRepository;
+import searchengine.repositories.PageTextRepository.PageSummary;
 import searchengine.repositories.SiteRepository;
 import searchengine.services.LemmaFinder;
+import searchengine.services.DocumentStats;
+import searchengine.services.PageProcessor;
+import searchengine.services.TextCompressor;
 import searchengine.services.interfaces.SearchService;
+import searchengine.services.search.CollectionStats;
+import searchengine.services.search.LemmaCompletion;
+import searchengine.services.search.PagePositions;
+import searchengine.services.search.RankedPages;
+import searchengine.services.search.SearchExecutor;
+import searchengine.services.search.SearchResultCache;
+import searchengine.services.search.SnippetBuilder;
+import searchengine.services.search.SnippetExecutor;
+import searchengine.services.search.SpellingCorrector;
+import searchengine.services.search.TopPages;
+import searchengine.services.search.query.QueryEvaluator;
+import searchengine.services.search.query.QueryPlan;
+import searchengine.services.search.query.SearchQuery;
 
-import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 @Service
 @Log4j2
@@ -35,50 +56,77 @@ public class SearchServiceImpl implements SearchService {
     @Autowired
     private final SiteRepository siteRepository;
     @Autowired
-    private final LemmaRepository lemmaRepository;
-    @Autowired
-    private final IndexRepository indexRepository;
-
-    private List<SiteEntity> siteEntities;
-    private Set<String> lemmas;
-    private LemmaFinder lemmaFinder;
-    private final List<DetailedSearchItem> detailedData = new ArrayList<>();
-
-    private String query = "";
-    private String site = "";
+    private final PageRepository pageRepository;
+    private final PageTextRepository pageTextRepository;
+    private final PageHtmlRepository pageHtmlRepository;
+    private final LemmaFinder lemmaFinder;
+    private final SearchResultCache searchResultCache;
+    private final SnippetExecutor snippetExecutor;
+    private final SearchSetting searchSetting;
+    private final QueryEvaluator queryEvaluator;
+    private final SpellingCorrector spellingCorrector;
+    private final LemmaCompletion lemmaCompletion;
+    private final SearchExecutor searchExecutor;
 
     private static final int SNIPPED_CHARS_COUNT = 200;
 
-    private static final int MAX_PAGES_COUNT = 500;
+    /**
+     * Сколько лучших страниц отбирается как минимум, чтобы листание первых страниц выдачи шло из кэша
+     */
+    private static final int MIN_RANKED_PAGES = 500;
 
-    private int limit;
-    private int offset;
-    private int count = 0;
-
-    private Float maxRank = 0F;
-    private Map<PageEntity, Float> sortedPagesMap = new HashMap<>();
+    private static final int MAX_SUGGESTIONS = 20;
 
 
+    /**
+     * Запрос выполняется в {@link SearchExecutor}. Срок отсчитывается с момента поступления запроса: после
+     * него ранжирование останавливается, а сниппеты не строятся, и возвращается то, что успели найти.
+     *
+     * @param timeout срок выполнения запроса в мс, 0 - searchTimeout из настроек
+     * @throws RejectedExecutionException если очередь поисковых запросов заполнена
+     */
     @Override
-    public SearchResponse search(String query, String site, int offset, int limit) {
-        this.offset = offset;
-        this.limit = limit;
-
-        siteEntities = createSiteEntityList(site);
-
-        if (site == null) {
-            site = "";
-        }
+    public CompletableFuture<SearchResponse> search(String query, String site, int offset, int limit, long timeout) {
+        long effectiveTimeout = timeout > 0 ? Math.min(timeout, searchSetting.getMaxSearchTimeout())
+                : searchSetting.getSearchTimeout();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(effectiveTimeout);
+        return searchExecutor.supply(() -> searchBefore(query, site, offset, limit, deadline));
+    }
 
-        if (!this.query.equals(query) || !this.site.equals(site)) {
-            this.query = query;
-            this.site = site;
-            sortedPagesMap.clear();
-            detailedData.clear();
-            maxRank = 0F;
+    /**
+     * @param deadline System.nanoTime() окончания срока запроса
+     */
+    private SearchResponse searchBefore(String query, String site, int offset, int limit, long deadline) {
+        List<SiteEntity> siteEntities = createSiteEntityList(site);
+        SearchQuery searchQuery = SearchQuery.parse(query);
+        QueryPlan plan = QueryPlan.compile(searchQuery, lemmaFinder);
+        int depth = rankingDepth(offset, limit);
+        RankedPages rankedPages = rankPages(plan, siteEntities, depth, deadline);
+
+        String correctedQuery = null;
+        String suggestion = null;
+        Map<String, String> corrections = spellingCorrector.correct(searchQuery,
+                siteEntities.stream().map(SiteEntity::getId).toList());
+        if (!corrections.isEmpty() && !isExpired(deadline)) {
+            SearchQuery corrected = searchQuery.replaceWords(corrections);
+            if (rankedPages.size() > 0) {
+                suggestion = corrected.format();
+            } else {
+                QueryPlan correctedPlan = QueryPlan.compile(corrected, lemmaFinder);
+                RankedPages correctedPages = rankPages(correctedPlan, siteEntities, depth, deadline);
+                if (correctedPages.size() > 0) {
+                    log.info("Query corrected: {} -> {}", query, corrected.format());
+                    correctedQuery = corrected.format();
+                    plan = correctedPlan;
+                    rankedPages = correctedPages;
+                }
+            }
         }
 
-        createData();
+        boolean partial = rankedPages.isTruncated() || isExpired(deadline);
+        List<DetailedSearchItem> detailedData = createDetailedData(rankedPages, plan.getHighlightLemmas(),
+                siteEntities, offset, limit, deadline, rankedPages.getMaxRank());
+        int count = Math.min(rankedPages.getTotalCount(), searchSetting.getMaxResultWindow());
 
         if (detailedData.isEmpty()) {
             log.info("No pages found");
@@ -87,9 +135,10 @@ public class SearchServiceImpl implements SearchService {
             response.setResult(false);
             return response;
         } else {
-            if (count == MAX_PAGES_COUNT) {
-                log.info("Showing {} pages of more then {} found, offset {} ({})", detailedData.size(), count, offset, query);
-            } else if (detailedData.size() < count) {
+            if (partial) {
+                log.info("Search deadline exceeded, returning partial results ({})", query);
+            }
+            if (detailedData.size() < count) {
                 log.info("Showing {} pages of {} found, offset {} ({})", detailedData.size(), count, offset, query);
             } else {
                 log.info("Found {} pages ({})", detailedData.size(), query);
@@ -98,84 +147,251 @@ public class SearchServiceImpl implements SearchService {
             successResponse.setResult(true);
             successResponse.setData(detailedData);
             successResponse.setCount(count);
+            successResponse.setCorrectedQuery(correctedQuery);
+            successResponse.setSuggestion(suggestion);
+            successResponse.setPartial(partial ? Boolean.TRUE : null);
             return successResponse;
         }
     }
 
-    private void createData() {
-        if (sortedPagesMap.isEmpty()) {
-            try {
-                lemmaFinder = LemmaFinder.getInstance();
-                lemmas = lemmaFinder.getLemmaSet(query);
+    @Override
+    public SuggestResponse suggest(String prefix, String site, int limit) {
+        SuggestResponse response = new SuggestResponse();
+        response.setResult(true);
+        response.setSuggestions(lemmaCompletion.complete(prefix, site, Math.min(Math.max(limit, 1), MAX_SUGGESTIONS)));
+        return response;
+    }
 
-                createSortedPagesMap();
+    /**
+     * Статистика сайтов шарда по леммам запроса, первая фаза поиска координатора
+     */
+    @Override
+    public ShardStatsResponse shardStats(String query, String site) {
+        QueryPlan plan = QueryPlan.compile(SearchQuery.parse(query), lemmaFinder);
+        CollectionStats stats = queryEvaluator.collectionStats(plan,
+                createShardSiteEntityList(site).stream().map(SiteEntity::getId).toList());
+        ShardStatsResponse response = new ShardStatsResponse();
+        response.setResult(true);
+        response.setPageCount(stats.pages().pageCount());
+        response.setTotalLength(stats.pages().totalLength());
+        response.setDocumentFrequencies(stats.documentFrequencies());
+        return response;
+    }
 
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    /**
+     * Вторая фаза поиска координатора: страницы оцениваются по статистике всех шардов из запроса, в ответ
+     * идут только id и оценки. Результат не кэшируется, опечатки не исправляются: словари у шардов разные.
+     *
+     * @throws RejectedExecutionException если очередь поисковых запросов заполнена
+     */
+    @Override
+    public CompletableFuture<ShardHitsResponse> shardSearch(ShardSearchRequest request) {
+        long deadline = shardDeadline(request.getTimeout());
+        return searchExecutor.supply(() -> {
+            List<SiteEntity> siteEntities = createShardSiteEntityList(request.getSite());
+            QueryPlan plan = QueryPlan.compile(SearchQuery.parse(request.getQuery()), lemmaFinder);
+            CollectionStats stats = new CollectionStats(
+                    request.getDocumentFrequencies() == null ? Map.of() : request.getDocumentFrequencies(),
+                    new DocumentStats.SiteStats(request.getPageCount(), request.getTotalLength()));
+            int depth = Math.min(Math.max(request.getLimit(), 1), searchSetting.getMaxResultWindow());
+            RankedPages rankedPages = plan.isEmpty() || siteEntities.isEmpty() ? RankedPages.EMPTY
+                    : createRankedPages(plan, siteEntities, stats, depth, deadline);
+            int size = Math.min(rankedPages.size(), depth);
+            int[] pageIds = new int[size];
+            float[] scores = new float[size];
+            for (int i = 0; i < size; i++) {
+                pageIds[i] = rankedPages.getPageId(i);
+                scores[i] = rankedPages.getRank(i);
             }
-        } else {
-            detailedData.clear();
-            createDetailedData();
-        }
+            ShardHitsResponse response = new ShardHitsResponse();
+            response.setResult(true);
+            response.setPageIds(pageIds);
+            response.setScores(scores);
+            response.setCount(Math.min(rankedPages.getTotalCount(), searchSetting.getMaxResultWindow()));
+            response.setPartial(rankedPages.isTruncated() ? Boolean.TRUE : null);
+            return response;
+        });
     }
 
-    private void createSortedPagesMap() {
-        Map<LemmaEntity, Integer> lemmaFrequencyMap = createLemmaFrequencyMap();
-        List<SiteEntity> checkedSites = new ArrayList<>();
-        HashSet<PageEntity> foundPages = new HashSet<>();
-        Map<LemmaEntity, Integer> sortedLemmaMap = (Map<LemmaEntity, Integer>) sortValues(lemmaFrequencyMap, false);
-        for (LemmaEntity lemmaEntity : sortedLemmaMap.keySet()) {
-            SiteEntity currentSiteEntity = lemmaEntity.getSite();
-            if (checkedSites.contains(currentSiteEntity)) {
-                continue;
-            }
-            checkedSites.add(currentSiteEntity);
-            foundPages.addAll(collectPages(lemmaEntity));
-        }
-        count = foundPages.size();
-        sortPagesByRank(foundPages);
+    /**
+     * Третья фаза поиска координатора: результаты со сниппетами для страниц шарда, попавших в выдачу
+     *
+     * @throws RejectedExecutionException если очередь поисковых запросов заполнена
+     */
+    @Override
+    public CompletableFuture<SuccessResponse> shardPages(ShardPagesRequest request) {
+        long deadline = shardDeadline(request.getTimeout());
+        return searchExecutor.supply(() -> {
+            QueryPlan plan = QueryPlan.compile(SearchQuery.parse(request.getQuery()), lemmaFinder);
+            RankedPages rankedPages = new RankedPages(request.getPageIds(), request.getScores(),
+                    request.getPageIds().length);
+            SuccessResponse response = new SuccessResponse();
+            response.setResult(true);
+            response.setData(createDetailedData(rankedPages, plan.getHighlightLemmas(), createShardSiteEntityList(null),
+                    0, rankedPages.size(), deadline, 1F));
+            response.setCount(response.getData().size());
+            response.setPartial(isExpired(deadline) ? Boolean.TRUE : null);
+            return response;
+        });
     }
 
-    private Map<LemmaEntity, Integer> createLemmaFrequencyMap() {
+    private long shardDeadline(long timeout) {
+        long effectiveTimeout = timeout > 0 ? Math.min(timeout, searchSetting.getMaxSearchTimeout())
+                : searchSetting.getSearchTimeout();
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(effectiveTimeout);
+    }
 
-        Map<LemmaEntity, Integer> lemmaFrequencyMap = new HashMap<>();
+    /**
+     * @return сколько лучших страниц отобрать, чтобы показать результаты с offset по offset + limit
+     */
+    private int rankingDepth(int offset, int limit) {
+        long depth = (long) Math.max(offset, 0) + Math.max(limit, 0);
+        return (int) Math.min(Math.max(depth, MIN_RANKED_PAGES), searchSetting.getMaxResultWindow());
+    }
 
-        for (SiteEntity currentSiteEntity : siteEntities) {
-            if (!containsAllLemmas(currentSiteEntity)) {
-                continue;
-            }
-            for (String lemma : lemmas) {
-                LemmaEntity lemmaEntity = lemmaRepository.findLemmaEntityByLemmaAndSite(lemma, currentSiteEntity);
-                if (lemmaEntity != null) {
-                    lemmaFrequencyMap.put(lemmaEntity, lemmaEntity.getFrequency());
-                }
+    private RankedPages rankPages(QueryPlan plan, List<SiteEntity> siteEntities, int depth, long deadline) {
+        return plan.isEmpty() ? RankedPages.EMPTY : searchResultCache.get(plan.getKey(), siteEntities, depth,
+                () -> createRankedPages(plan, siteEntities, depth, deadline));
+    }
+
+    private static boolean isExpired(long deadline) {
+        return System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * Ранжирует сайты параллельно в {@link SearchExecutor}: каждый сайт отбирает depth лучших страниц
+     * с оценками по статистике всех сайтов поиска, и списки сливаются. Сайт, не успевший к сроку запроса,
+     * отменяется, и результат помечается неполным.
+     */
+    private RankedPages createRankedPages(QueryPlan plan, List<SiteEntity> siteEntities, int depth, long deadline) {
+        return createRankedPages(plan, siteEntities,
+                queryEvaluator.collectionStats(plan, siteEntities.stream().map(SiteEntity::getId).toList()), depth,
+                deadline);
+    }
+
+    private RankedPages createRankedPages(QueryPlan plan, List<SiteEntity> siteEntities, CollectionStats stats,
+                                          int depth, long deadline) {
+        List<Integer> siteIds = siteEntities.stream().map(SiteEntity::getId).toList();
+        if (siteIds.size() == 1) {
+            return rankSite(plan, siteIds.get(0), stats, depth, deadline);
+        }
+        List<CompletableFuture<RankedPages>> futures = new ArrayList<>();
+        for (int siteId : siteIds) {
+            futures.add(searchExecutor.supplySite(() -> rankSite(plan, siteId, stats, depth, deadline)));
+        }
+        List<RankedPages> parts = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                parts.add(futures.get(i).get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                futures.get(i).cancel(true);
+                parts.add(new RankedPages(new int[0], new float[0], 0, true));
+            } catch (ExecutionException e) {
+                log.error("Ranking of site {} failed", siteIds.get(i), e.getCause());
+                parts.add(new RankedPages(new int[0], new float[0], 0, true));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(future -> future.cancel(true));
+                parts.add(new RankedPages(new int[0], new float[0], 0, true));
+                break;
             }
         }
-        return lemmaFrequencyMap;
+        return RankedPages.merge(parts, depth);
     }
 
-    private void sortPagesByRank(HashSet<PageEntity> foundPages) {
-        HashMap<PageEntity, Float> rankedPages = new HashMap<>();
-        for (PageEntity page : foundPages) {
-            maxRank = Math.max(addToRankedPages(page, rankedPages), maxRank);
+    /**
+     * Сайт, до которого дошла очередь после срока запроса, не проверяется.
+     */
+    private RankedPages rankSite(QueryPlan plan, int siteId, CollectionStats stats, int depth, long deadline) {
+        TopPages topPages = new TopPages(depth);
+        if (isExpired(deadline)) {
+            topPages.truncate();
+        } else {
+            queryEvaluator.evaluate(plan, siteId, stats, topPages, deadline);
         }
-        sortedPagesMap = (Map<PageEntity, Float>) sortValues(rankedPages, true);
-        createDetailedData();
+        return topPages.toRankedPages();
     }
 
-    private void createDetailedData() {
-        int i = 0;
-        for (PageEntity page : sortedPagesMap.keySet()) {
-            if (i < offset) {
-                i++;
-                continue;
+    /**
+     * Если срок запроса истёк, результаты получают сниппет из начала текста без построения по леммам.
+     *
+     * @param maxRank оценка, которой соответствует relevance 1
+     */
+    private List<DetailedSearchItem> createDetailedData(RankedPages rankedPages, Set<String> lemmas,
+                                                        List<SiteEntity> siteEntities, int offset, int limit,
+                                                        long requestDeadline, float maxRank) {
+        List<DetailedSearchItem> detailedData = new ArrayList<>();
+        int end = Math.min(rankedPages.size(), offset + limit);
+        if (offset >= end) {
+            return detailedData;
+        }
+        List<Integer> pageIds = new ArrayList<>();
+        for (int i = offset; i < end; i++) {
+            pageIds.add(rankedPages.getPageId(i));
+        }
+        Map<Integer, SiteEntity> sitesById = new HashMap<>();
+        siteEntities.forEach(siteEntity -> sitesById.put(siteEntity.getId(), siteEntity));
+        Map<Integer, PageText> pages = new HashMap<>();
+        for (PageSummary summary : pageTextRepository.findSummaries(pageIds)) {
+            pages.put(summary.getPageId(), new PageText(sitesById.get(summary.getSiteId()), summary.getPath(),
+                    summary.getTitle(), summary.getText(), summary.getPositions(), null));
+        }
+        if (pages.size() < pageIds.size()) {
+            List<Integer> missingIds = pageIds.stream().filter(id -> !pages.containsKey(id)).toList();
+            Map<Integer, String> htmls = new HashMap<>();
+            pageHtmlRepository.findAllById(missingIds).forEach(html -> htmls.put(html.getPageId(), html.getContent()));
+            for (PageEntity page : pageRepository.findAllById(missingIds)) {
+                pages.put(page.getId(), new PageText(sitesById.get(page.getSite().getId()), page.getPath(),
+                        null, null, null, htmls.getOrDefault(page.getId(), "")));
             }
-            float relevance = sortedPagesMap.get(page) / maxRank;
-            addToDetailedList(page, relevance);
-            if (detailedData.size() == limit) {
-                break;
+        }
+
+        List<PageText> visiblePages = new ArrayList<>();
+        List<Float> relevances = new ArrayList<>();
+        List<Future<DetailedSearchItem>> items = new ArrayList<>();
+        boolean expired = isExpired(requestDeadline);
+        for (int i = offset; i < end; i++) {
+            PageText page = pages.get(rankedPages.getPageId(i));
+            if (page != null && page.site() != null) {
+                float relevance = rankedPages.getRank(i) / maxRank;
+                visiblePages.add(page);
+                relevances.add(relevance);
+                items.add(expired ? CompletableFuture.completedFuture(createPlainItem(page, relevance))
+                        : submitDetailedItem(page, relevance, lemmas));
             }
         }
+        long snippetDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(searchSetting.getSnippetTimeout());
+        long deadline = snippetDeadline - requestDeadline < 0 ? snippetDeadline : requestDeadline;
+        for (int i = 0; i < items.size(); i++) {
+            detailedData.add(awaitDetailedItem(items.get(i), deadline, visiblePages.get(i), relevances.get(i)));
+        }
+        return detailedData;
+    }
+
+    private Future<DetailedSearchItem> submitDetailedItem(PageText page, float relevance, Set<String> lemmas) {
+        try {
+            return snippetExecutor.submit(() -> createDetailedItem(page, relevance, lemmas));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(createPlainItem(page, relevance));
+        }
+    }
+
+    /**
+     * Ждёт сниппет не дольше общего для запроса срока, опоздавший результат получает сниппет из начала текста.
+     */
+    private DetailedSearchItem awaitDetailedItem(Future<DetailedSearchItem> item, long deadline, PageText page,
+                                                 float relevance) {
+        try {
+            return item.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            item.cancel(true);
+            log.debug("Snippet timed out for {}", page.path());
+        } catch (ExecutionException e) {
+            log.error("Failed to build snippet for {}", page.path(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return createPlainItem(page, relevance);
     }
 
     private List<SiteEntity> createSiteEntityList(String site) {
@@ -185,7 +401,7 @@ public class SearchServiceImpl implements SearchService {
             siteEntity = siteRepository.findByUrl(site);
         }
 
-        siteEntities = new ArrayList<>();
+        List<SiteEntity> siteEntities = new ArrayList<>();
         if (siteEntity != null) {
             siteEntities.add(siteEntity);
         } else {
@@ -200,182 +416,58 @@ public class SearchServiceImpl implements SearchService {
         return siteEntities;
     }
 
-    private float addToRankedPages(PageEntity page, Map<PageEntity, Float> rankedPages) {
-        float result = 0F;
-        for (String lemma : lemmas) {
-            SiteEntity siteEntity = page.getSite();
-            LemmaEntity lemmaEntity = lemmaRepository.findLemmaEntityByLemmaAndSite(lemma, siteEntity);
-            if (lemmaEntity != null) {
-                List<IndexEntity> indexEntityList = indexRepository.searchTop1000ByPageAndLemmaOrderByRankDesc(page, lemmaEntity);
-                for (IndexEntity index : indexEntityList) {
-                    if (!rankedPages.containsKey(page)) {
-                        float newValue = index.getRank();
-                        rankedPages.put(page, newValue);
-                        result = Math.max(result, newValue);
-                    } else {
-                        float oldValue = rankedPages.get(page);
-                        float newValue = oldValue + index.getRank();
-                        rankedPages.replace(page, newValue);
-                        result = Math.max(result, newValue);
-                    }
-                }
-            }
+    /**
+     * Сайт, которого нет на шарде, ищется на других шардах, поэтому здесь - пустой список, а не все сайты
+     */
+    private List<SiteEntity> createShardSiteEntityList(String site) {
+        if (site == null || site.isBlank()) {
+            return createSiteEntityList(null);
         }
-        return result;
+        SiteEntity siteEntity = siteRepository.findByUrl(site);
+        return siteEntity == null ? List.of() : List.of(siteEntity);
     }
 
-    private boolean containsAllLemmas(SiteEntity currentSiteEntity) {
-        for (String lemma : lemmas) {
-            LemmaEntity lemmaEntity = lemmaRepository.findLemmaEntityByLemmaAndSite(lemma, currentSiteEntity);
-            if (lemmaEntity == null) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private Set<PageEntity> collectPages(LemmaEntity lemmaEntity) {
-
-        HashSet<PageEntity> foundPages = new HashSet<>();
-        List<IndexEntity> indexEntityList = indexRepository.searchTop1000ByLemmaOrderByRankDesc(lemmaEntity);
-        HashSet<PageEntity> firstPages = new HashSet<>();
-        for (IndexEntity index : indexEntityList) {
-            firstPages.add(index.getPage());
-        }
-        if (!firstPages.isEmpty()) {
-            Set<String> nextLemmas = new HashSet<>(lemmas);
-            nextLemmas.remove(lemmaEntity.getLemma());
-            Set<PageEntity> mergePages = mergePages(nextLemmas, firstPages, lemmaEntity.getSite());
-            foundPages.addAll(mergePages);
-        }
-        return foundPages;
-    }
-
-    private Set<PageEntity> mergePages(Set<String> lemmas,
-                                       Set<PageEntity> pages, SiteEntity siteEntity) {
-        if (lemmas.isEmpty()) {
-            return pages;
-        }
-        HashSet<PageEntity> mergePages = new HashSet<>();
-        String lemma = lemmas.stream().toList().get(0);
-        LemmaEntity lemmaEntity = lemmaRepository.findLemmaEntityByLemmaAndSite(lemma, siteEntity);
-        if (lemmaEntity == null) {
-            return mergePages;
-        }
-        List<IndexEntity> indexEntityList = indexRepository.searchTop1000ByLemmaOrderByRankDesc(lemmaEntity);
-        for (IndexEntity index : indexEntityList) {
-            PageEntity page = index.getPage();
-            if (pages.contains(page)) {
-                mergePages.add(page);
-            }
-        }
-        if (!mergePages.isEmpty()) {
-            Set<String> nextLemmas = new HashSet<>(lemmas);
-            nextLemmas.remove(lemma);
-            return mergePages(nextLemmas, mergePages, siteEntity);
+    private DetailedSearchItem createDetailedItem(PageText page, float relevance, Set<String> lemmas) {
+        String title = page.title();
+        String text;
+        PagePositions positions;
+        if (page.html() != null) {
+            Document doc = Jsoup.parse(page.html());
+            title = doc.title();
+            text = PageProcessor.extractText(doc);
+            positions = lemmaFinder.findPositions(text);
         } else {
-            return mergePages;
+            text = TextCompressor.decompress(page.text());
+            positions = page.positions() == null
+                    ? lemmaFinder.findPositions(text) : PagePositions.fromBytes(page.positions());
         }
+        return createItem(page, title, SnippetBuilder.build(text, positions, lemmas, SNIPPED_CHARS_COUNT), relevance);
     }
 
-    private Map<?, ?> sortValues(Map<?, ?> originalMap, boolean reverse) {
-        {
-            var list = new LinkedList(originalMap.entrySet());
-            if (reverse) {
-                list.sort((o1, o2) -> ((Comparable) (((float) ((Map.Entry) (o1)).getValue() * 100_000 +
-                        ((PageEntity) ((Map.Entry) (o1)).getKey()).getId()) * -1))
-                        .compareTo((((float) ((Map.Entry) (o2)).getValue() * 100_000 +
-                                ((PageEntity) ((Map.Entry) (o2)).getKey()).getId()) * -1)));
-            } else {
-                //Custom Comparator
-                list.sort((o1, o2) -> ((Comparable) ((Map.Entry) (o1)).getValue()).compareTo(((Map.Entry) (o2)).getValue()));
-            }
-
-            HashMap sortedHashMap = new LinkedHashMap();
-            for (Object o : list) {
-                Map.Entry entry = (Map.Entry) o;
-                sortedHashMap.put(entry.getKey(), entry.getValue());
-            }
-            return sortedHashMap;
-        }
+    private DetailedSearchItem createPlainItem(PageText page, float relevance) {
+        String snippet = page.text() == null ? ""
+                : SnippetBuilder.prefix(TextCompressor.decompress(page.text(), SNIPPED_CHARS_COUNT * 4),
+                SNIPPED_CHARS_COUNT);
+        return createItem(page, page.title() == null ? page.path() : page.title(), snippet, relevance);
     }
 
-    private void addToDetailedList(PageEntity page, float relevance) {
-        SiteEntity siteEntity = page.getSite();
+    private DetailedSearchItem createItem(PageText page, String title, String snippet, float relevance) {
+        SiteEntity siteEntity = page.site();
         DetailedSearchItem item = new DetailedSearchItem();
         item.setSite(siteEntity.getUrl());
         item.setSiteName(siteEntity.getName());
-        item.setUri(page.getPath());
-        Document doc = Jsoup.parse(page.getContent());
-        String title = doc.title();
+        item.setUri(page.path());
         item.setTitle(title);
-        String text = Jsoup.clean(doc.text(), Safelist.simpleText())
-                .replaceAll("\\s+", " ");
-        String snippet = createSnippet(text);
-        String snippedWithBoldLemmas = addBoldToSnippet(snippet);
-        item.setSnippet(snippedWithBoldLemmas);
+        item.setSnippet(snippet);
         item.setRelevance(relevance);
-        detailedData.add(item);
-    }
-
-    private String addBoldToSnippet(String text) {
-        String[] snippetWords = text
-                .trim().split("\\s");
-        StringBuilder result = new StringBuilder();
-        for (String snippetWord : snippetWords) {
-            Set<String> lemmaSnippet = lemmaFinder.getLemmaSet(snippetWord);
-            boolean haveToBold = false;
-            for (String keySnippet : lemmaSnippet) {
-                for (String lemmaFromQuery : lemmas) {
-                    if (keySnippet.equals(lemmaFromQuery)) {
-                        haveToBold = true;
-                        break;
-                    }
-                }
-                if (haveToBold) {
-                    break;
-                }
-            }
-            result.append(haveToBold ? "<b> " : " ")
-                    .append(snippetWord)
-                    .append(haveToBold ? "</b> " : " ");
-        }
-        return result.toString();
+        return item;
     }
 
-    private String createSnippet(String text) {
-
-        String dottedText = text
-                .replaceAll("[\\s,:;!?'\"\\d]", ".");
-
-        String[] textWords = dottedText
-                .trim().split("[.]");
-        int start = -1;
-        for (String word : textWords) {
-            Set<String> lemmaWords = lemmaFinder.getLemmaSet(word);
-            for (String lemmaWord : lemmaWords) {
-                if (lemmas.contains(lemmaWord)) {
-                    start = dottedText.indexOf(word + ".");
-                    break;
-                }
-            }
-            if (start > -1) break;
-        }
-        String textToFindStart = dottedText.replaceAll("[А-ЯЁ\"«]", "!");
-
-        for (; start > 0; start--) {
-            if (textToFindStart.substring(start).startsWith(".!")) {
-                start++;
-                break;
-            }
-        }
-        int end = Math.min(start + SNIPPED_CHARS_COUNT, text.length() - 1);
-        for (; end < text.length(); end++) {
-            if (textToFindStart.substring(end).startsWith(".!")) {
-                break;
-            }
-        }
-
-        return text.substring(Math.max(0, start), end);
+    /**
+     * @param text      сжатый текст страницы, {@link PageProcessor#extractText}
+     * @param positions позиционный индекс текста {@link PagePositions} или null
+     * @param html      HTML страницы, проиндексированной до появления page_text, тогда остальное null
+     */
+    private record PageText(SiteEntity site, String path, String title, byte[] text, byte[] positions, String html) {
     }
 }
@@ -0,0 +1,184 @@
+package searchengine.services.implementations;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import searchengine.config.IndexStorageSetting;
+import searchengine.repositories.IndexBatchRepository.IndexRow;
+import searchengine.services.DocumentStats;
+import searchengine.services.interfaces.IndexStorage;
+import searchengine.services.interfaces.IndexStorage.PageUpdate;
+import searchengine.services.search.PostingCursor;
+import searchengine.services.search.PostingList;
+import searchengine.services.segment.SiteSegments;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Индекс в файлах сегментов: каталог на каждый сайт, сегменты читаются через отображение в память,
+ * слияние сегментов идёт в фоновом потоке.
+ * <p>
+ * Файлы не участвуют в транзакции MySQL, поэтому изменения, сделанные внутри транзакции, записываются
+ * после её фиксации; при откате они отбрасываются вместе со счётчиками лемм.
+ */
+@Service
+@ConditionalOnProperty(prefix = "index-storage", name = "type", havingValue = "segments")
+@Log4j2
+public class SegmentIndexStorage implements IndexStorage {
+    private final IndexStorageSetting setting;
+    private final DocumentStats documentStats;
+    private final Path root;
+    private final Map<Integer, SiteSegments> sites = new ConcurrentHashMap<>();
+    private final ExecutorService mergeExecutor;
+
+    public SegmentIndexStorage(IndexStorageSetting setting, DocumentStats documentStats) throws IOException {
+        this.setting = setting;
+        this.documentStats = documentStats;
+        root = Path.of(setting.getPath());
+        Files.createDirectories(root);
+        try (Stream<Path> directories = Files.list(root)) {
+            for (Path directory : directories.toList()) {
+                String name = directory.getFileName().toString();
+                if (Files.isDirectory(directory) && name.matches("\\d+")) {
+                    sites.put(Integer.parseInt(name), SiteSegments.open(directory, documentStats::getLength));
+                }
+            }
+        }
+        mergeExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "segment-merger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Opened segment index in {} for {} sites", root.toAbsolutePath(), sites.size());
+    }
+
+    @PreDestroy
+    public void stop() {
+        mergeExecutor.shutdown();
+    }
+
+    @Override
+    public void savePostings(int siteId, List<IndexRow> rows) {
+        afterCommit(() -> writePostings(siteId, rows));
+    }
+
+    private void writePostings(int siteId, List<IndexRow> rows) throws IOException {
+        SiteSegments siteSegments = site(siteId);
+        siteSegments.write(rows);
+        if (siteSegments.getSegmentCount() > setting.getMaxSegments() && siteSegments.scheduleMerge()) {
+            mergeExecutor.execute(() -> {
+                try {
+                    siteSegments.merge((long) setting.getMaxSegmentMb() << 20);
+                } catch (IOException e) {
+                    log.error("Failed to merge segments of site {}", siteId, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Сегменты неизменяемы, поэтому страницы удаляются и записываются заново целиком: одна запись
+     * об удалении всех страниц пакета и один сегмент с их строками.
+     */
+    @Override
+    public void updatePages(int siteId, List<PageUpdate> pages) {
+        List<Integer> pageIds = new ArrayList<>(pages.size());
+        List<IndexRow> rows = new ArrayList<>();
+        for (PageUpdate page : pages) {
+            pageIds.add(page.pageId());
+            rows.addAll(page.allRows());
+        }
+        afterCommit(() -> {
+            site(siteId).deletePages(pageIds);
+            writePostings(siteId, rows);
+        });
+    }
+
+    @Override
+    public void deletePage(int siteId, int pageId) {
+        afterCommit(() -> site(siteId).deletePage(pageId));
+    }
+
+    @Override
+    public void deleteSite(int siteId) {
+        afterCommit(() -> {
+            SiteSegments siteSegments = sites.remove(siteId);
+            if (siteSegments != null) {
+                siteSegments.delete();
+            } else {
+                SiteSegments.deleteDirectory(root.resolve(String.valueOf(siteId)));
+            }
+        });
+    }
+
+    @Override
+    public PostingList findPostings(int siteId, int lemmaId, int expectedSize) {
+        SiteSegments siteSegments = sites.get(siteId);
+        return siteSegments == null ? PostingList.EMPTY : siteSegments.findPostings(lemmaId, expectedSize);
+    }
+
+    @Override
+    public PostingList findPostings(int siteId, int lemmaId, int[] pageIds) {
+        SiteSegments siteSegments = sites.get(siteId);
+        return siteSegments == null ? PostingList.EMPTY : siteSegments.findPostings(lemmaId, pageIds);
+    }
+
+    @Override
+    public PostingCursor openPostings(int siteId, int lemmaId, int expectedSize) {
+        SiteSegments siteSegments = sites.get(siteId);
+        return siteSegments == null ? PostingList.EMPTY.cursor() : siteSegments.openPostings(lemmaId);
+    }
+
+    /**
+     * Выполняет запись после фиксации текущей транзакции или сразу, если транзакции нет.
+     * Записи одной транзакции выполняются в порядке вызовов; ошибка записи после фиксации
+     * передаётся вызывающему транзакцию.
+     */
+    private void afterCommit(SegmentWrite write) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            run(write);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                run(write);
+            }
+        });
+    }
+
+    private static void run(SegmentWrite write) {
+        try {
+            write.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface SegmentWrite {
+        void run() throws IOException;
+    }
+
+    private SiteSegments site(int siteId) {
+        return sites.computeIfAbsent(siteId, id -> {
+            try {
+                return SiteSegments.open(root.resolve(String.valueOf(id)), documentStats::getLength);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
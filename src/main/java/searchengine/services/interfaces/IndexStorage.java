@@ -0,0 +1,51 @@
+package searchengine.services.interfaces;
+
+import searchengine.repositories.IndexBatchRepository.IndexRow;
+import searchengine.services.search.PostingCursor;
+import searchengine.services.search.PostingList;
+
+import java.util.List;
+
+/**
+ * Хранилище списков страниц лемм (таблица index). Сайты, страницы и словарь лемм всегда хранятся в MySQL.
+ */
+public interface IndexStorage {
+    void savePostings(int siteId, List<IndexRow> rows);
+
+    /**
+     * Заменяет строки индекса переиндексированных страниц сайта.
+     */
+    void updatePages(int siteId, List<PageUpdate> pages);
+
+    void deletePage(int siteId, int pageId);
+
+    void deleteSite(int siteId);
+
+    /**
+     * @return все страницы леммы по возрастанию id
+     */
+    PostingList findPostings(int siteId, int lemmaId, int expectedSize);
+
+    /**
+     * @param pageIds id страниц по возрастанию
+     * @return страницы из pageIds, на которых есть лемма
+     */
+    PostingList findPostings(int siteId, int lemmaId, int[] pageIds);
+
+    /**
+     * Курсор по страницам леммы. По умолчанию список загружается целиком, хранилище, которое читает
+     * списки по блокам, перепрыгивает ненужные блоки без чтения.
+     */
+    default PostingCursor openPostings(int siteId, int lemmaId, int expectedSize) {
+        return findPostings(siteId, lemmaId, expectedSize).cursor();
+    }
+
+    /**
+     * @param changedRows     строки лемм, которые появились на странице или у которых изменился rank
+     * @param removedLemmaIds леммы, которых на странице больше нет
+     * @param allRows         все строки страницы после изменения
+     */
+    record PageUpdate(int pageId, List<IndexRow> changedRows, List<Integer> removedLemmaIds,
+                      List<IndexRow> allRows) {
+    }
+}
@@ -3,7 +3,7 @@ package searchengine.services.interfaces;
 import searchengine.dto.indexing.IndexingResponse;
 
 public interface IndexingService {
-    IndexingResponse startIndexing();
+    IndexingResponse startIndexing(boolean resume, boolean incremental);
     IndexingResponse stopIndexing();
     IndexingResponse indexPage(String url);
 }
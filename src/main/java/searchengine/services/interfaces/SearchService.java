@@ -1,7 +1,23 @@
 package searchengine.services.interfaces;
 
 import searchengine.dto.search.SearchResponse;
+import searchengine.dto.search.ShardHitsResponse;
+import searchengine.dto.search.ShardPagesRequest;
+import searchengine.dto.search.ShardSearchRequest;
+import searchengine.dto.search.ShardStatsResponse;
+import searchengine.dto.search.SuccessResponse;
+import searchengine.dto.search.SuggestResponse;
+
+import java.util.concurrent.CompletableFuture;
 
 public interface SearchService {
-    SearchResponse search(String query, String site, int offset, int limit);
+    CompletableFuture<SearchResponse> search(String query, String site, int offset, int limit, long timeout);
+
+    SuggestResponse suggest(String prefix, String site, int limit);
+
+    ShardStatsResponse shardStats(String query, String site);
+
+    CompletableFuture<ShardHitsResponse> shardSearch(ShardSearchRequest request);
+
+    CompletableFuture<SuccessResponse> shardPages(ShardPagesRequest request);
 }
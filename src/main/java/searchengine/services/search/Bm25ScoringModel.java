@@ -0,0 +1,42 @@
+package searchengine.services.search;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import searchengine.config.SearchSetting;
+import searchengine.services.DocumentStats.SiteStats;
+
+/**
+ * Okapi BM25: idf * rank * (k1 + 1) / (rank + k1 * (1 - b + b * длина / средняя длина)),
+ * idf = ln(1 + (N - df + 0.5) / (df + 0.5)). Страница неизвестной длины считается страницей средней длины.
+ * Оценка сверху - значение при наибольшем rank и длине страницы, стремящейся к нулю.
+ */
+@Component
+@ConditionalOnProperty(prefix = "search-setting", name = "scoring", havingValue = "bm25", matchIfMissing = true)
+@RequiredArgsConstructor
+public class Bm25ScoringModel implements ScoringModel {
+    private final SearchSetting setting;
+
+    @Override
+    public TermScorer termScorer(int documentFrequency, SiteStats site) {
+        int pageCount = Math.max(site.pageCount(), documentFrequency);
+        float idf = (float) Math.log(1 + (pageCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+        float k1 = setting.getBm25K1();
+        float b = setting.getBm25B();
+        float averageLength = site.averageLength();
+        float idfK1 = idf * (k1 + 1);
+        float lengthNorm = k1 * b / averageLength;
+        float constantNorm = k1 * (1 - b);
+        return new TermScorer() {
+            @Override
+            public float score(float rank, int pageLength) {
+                return idfK1 * rank / (rank + (pageLength == 0 ? k1 : constantNorm + lengthNorm * pageLength));
+            }
+
+            @Override
+            public float maxScore(int maxRank) {
+                return maxRank <= 0 ? Float.POSITIVE_INFINITY : idfK1 * maxRank / (maxRank + constantNorm);
+            }
+        };
+    }
+}
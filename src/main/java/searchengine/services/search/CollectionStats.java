@@ -0,0 +1,21 @@
+package searchengine.services.search;
+
+import searchengine.services.DocumentStats.SiteStats;
+
+import java.util.Map;
+
+/**
+ * Статистика всех сайтов поиска для модели релевантности: частоты лемм запроса и страницы сайтов вместе.
+ * С ней оценки страниц разных сайтов сравнимы и их списки можно сливать.
+ *
+ * @param documentFrequencies лемма -> на скольких страницах сайтов поиска она есть
+ */
+public record CollectionStats(Map<String, Integer> documentFrequencies, SiteStats pages) {
+
+    /**
+     * @param localFrequency частота леммы на сайте, если лемма не вошла в статистику
+     */
+    public int documentFrequency(String lemma, int localFrequency) {
+        return documentFrequencies.getOrDefault(lemma, localFrequency);
+    }
+}
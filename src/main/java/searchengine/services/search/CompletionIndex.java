@@ -0,0 +1,126 @@
+package searchengine.services.search;
+
+import java.util.*;
+
+/**
+ * Неизменяемый индекс автодополнения по леммам сайта. Леммы отсортированы, поэтому леммы с общим префиксом
+ * занимают непрерывный диапазон массива (неявный префиксный трай), диапазон находится двоичным поиском.
+ * Самые частые леммы диапазона выбираются по дереву отрезков, в узле которого номер самой частой леммы
+ * отрезка: k лучших извлекаются за O(k log n) независимо от размера диапазона.
+ */
+public class CompletionIndex {
+    public static final CompletionIndex EMPTY = new Builder().build();
+
+    private final String[] lemmas;
+    private final int[] frequencies;
+    private final int[] tree;
+    private final int leafOffset;
+
+    private CompletionIndex(String[] lemmas, int[] frequencies) {
+        this.lemmas = lemmas;
+        this.frequencies = frequencies;
+        int leaves = Integer.highestOneBit(Math.max(lemmas.length, 1) * 2 - 1);
+        this.leafOffset = leaves;
+        this.tree = new int[leaves * 2];
+        Arrays.fill(tree, -1);
+        for (int i = 0; i < lemmas.length; i++) {
+            tree[leaves + i] = i;
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    public int size() {
+        return lemmas.length;
+    }
+
+    /**
+     * @return до limit лемм, начинающихся с prefix, по убыванию частоты, при равной частоте - по алфавиту
+     */
+    public List<Completion> complete(String prefix, int limit) {
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + Character.MAX_VALUE);
+        List<Completion> completions = new ArrayList<>(Math.min(limit, to - from));
+        if (from >= to || limit <= 0) {
+            return completions;
+        }
+        PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> a[2] == b[2] ? 0
+                : better(a[2], b[2]) == a[2] ? -1 : 1);
+        ranges.add(new int[]{from, to - 1, best(from, to - 1)});
+        while (!ranges.isEmpty() && completions.size() < limit) {
+            int[] range = ranges.poll();
+            int index = range[2];
+            completions.add(new Completion(lemmas[index], frequencies[index]));
+            if (range[0] < index) {
+                ranges.add(new int[]{range[0], index - 1, best(range[0], index - 1)});
+            }
+            if (index < range[1]) {
+                ranges.add(new int[]{index + 1, range[1], best(index + 1, range[1])});
+            }
+        }
+        return completions;
+    }
+
+    /**
+     * @return номер самой частой леммы среди лемм с номерами от from до to включительно
+     */
+    private int best(int from, int to) {
+        int result = -1;
+        for (int low = from + leafOffset, high = to + leafOffset + 1; low < high; low >>= 1, high >>= 1) {
+            if ((low & 1) == 1) {
+                result = better(result, tree[low++]);
+            }
+            if ((high & 1) == 1) {
+                result = better(result, tree[--high]);
+            }
+        }
+        return result;
+    }
+
+    private int better(int a, int b) {
+        if (a < 0 || b < 0) {
+            return Math.max(a, b);
+        }
+        if (frequencies[a] != frequencies[b]) {
+            return frequencies[a] > frequencies[b] ? a : b;
+        }
+        return Math.min(a, b);
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = lemmas.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (lemmas[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public record Completion(String lemma, int frequency) {
+    }
+
+    public static class Builder {
+        private final List<Completion> completions = new ArrayList<>();
+
+        public void add(String lemma, int frequency) {
+            completions.add(new Completion(lemma, frequency));
+        }
+
+        public CompletionIndex build() {
+            completions.sort(Comparator.comparing(Completion::lemma));
+            String[] lemmas = new String[completions.size()];
+            int[] frequencies = new int[completions.size()];
+            for (int i = 0; i < lemmas.length; i++) {
+                lemmas[i] = completions.get(i).lemma();
+                frequencies[i] = completions.get(i).frequency();
+            }
+            return new CompletionIndex(lemmas, frequencies);
+        }
+    }
+}
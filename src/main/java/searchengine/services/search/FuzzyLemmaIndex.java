@@ -0,0 +1,163 @@
+package searchengine.services.search;
+
+import java.util.*;
+
+/**
+ * Триграммный индекс словаря лемм сайта для поиска лемм, похожих на слово с опечаткой.
+ * Лемма дополняется метками начала и конца, у каждой триграммы - список номеров лемм, в которых она есть.
+ * Замена, вставка или удаление разрушает не больше трёх триграмм, перестановка соседних букв - четыре,
+ * поэтому у леммы на расстоянии не больше maxEdits от слова общих триграмм со словом не меньше
+ * (число триграмм слова - 4 * maxEdits). Такие кандидаты проверяются
+ * расстоянием Дамерау-Левенштейна (перестановка соседних букв - одна правка) с отсечением по maxEdits.
+ * Индекс неизменяем, при изменении словаря строится заново.
+ */
+public class FuzzyLemmaIndex {
+    private static final char BOUNDARY = '$';
+
+    /**
+     * Счётчики общих триграмм по номерам лемм, после поиска обнуляются только задетые
+     */
+    private static final ThreadLocal<int[]> SHARED_COUNTS = ThreadLocal.withInitial(() -> new int[0]);
+
+    private final String[] lemmas;
+    private final int[] frequencies;
+    private final Map<Long, int[]> postings;
+
+    private FuzzyLemmaIndex(String[] lemmas, int[] frequencies, Map<Long, int[]> postings) {
+        this.lemmas = lemmas;
+        this.frequencies = frequencies;
+        this.postings = postings;
+    }
+
+    public int size() {
+        return lemmas.length;
+    }
+
+    /**
+     * @return до limit лемм на расстоянии не больше maxEdits от word: по возрастанию расстояния,
+     * при равном расстоянии - по убыванию частоты
+     */
+    public List<Suggestion> suggest(String word, int maxEdits, int limit) {
+        long[] trigrams = trigrams(word);
+        int minShared = trigrams.length - 4 * maxEdits;
+        int[] shared = SHARED_COUNTS.get();
+        if (shared.length < lemmas.length) {
+            shared = new int[lemmas.length];
+            SHARED_COUNTS.set(shared);
+        }
+        int[] candidates = new int[16];
+        int candidateCount = 0;
+        for (long trigram : trigrams) {
+            int[] lemmaIndexes = postings.get(trigram);
+            if (lemmaIndexes == null) {
+                continue;
+            }
+            for (int index : lemmaIndexes) {
+                if (shared[index]++ == 0) {
+                    if (candidateCount == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, candidateCount * 2);
+                    }
+                    candidates[candidateCount++] = index;
+                }
+            }
+        }
+
+        List<Suggestion> suggestions = new ArrayList<>();
+        for (int i = 0; i < candidateCount; i++) {
+            int index = candidates[i];
+            String lemma = lemmas[index];
+            int sharedCount = shared[index];
+            shared[index] = 0;
+            if (sharedCount < minShared || Math.abs(lemma.length() - word.length()) > maxEdits) {
+                continue;
+            }
+            int distance = distance(word, lemma, maxEdits);
+            if (distance <= maxEdits) {
+                suggestions.add(new Suggestion(lemma, distance, frequencies[index]));
+            }
+        }
+        suggestions.sort(Comparator.comparingInt(Suggestion::distance)
+                .thenComparing(Comparator.comparingInt(Suggestion::frequency).reversed())
+                .thenComparing(Suggestion::lemma));
+        return suggestions.size() > limit ? List.copyOf(suggestions.subList(0, limit)) : suggestions;
+    }
+
+    /**
+     * Расстояние Дамерау-Левенштейна (с перестановками соседних символов) или maxEdits + 1, если оно больше maxEdits
+     */
+    static int distance(String a, String b, int maxEdits) {
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previous2[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > maxEdits) {
+                return maxEdits + 1;
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length()], maxEdits + 1);
+    }
+
+    /**
+     * Различные триграммы слова с метками начала и конца, каждая упакована в long
+     */
+    private static long[] trigrams(String word) {
+        String padded = BOUNDARY + word + BOUNDARY;
+        long[] trigrams = new long[Math.max(padded.length() - 2, 0)];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = (long) padded.charAt(i) << 32 | (long) padded.charAt(i + 1) << 16 | padded.charAt(i + 2);
+        }
+        return Arrays.stream(trigrams).distinct().toArray();
+    }
+
+    /**
+     * @param frequency число страниц сайта с леммой
+     */
+    public record Suggestion(String lemma, int distance, int frequency) {
+    }
+
+    public static class Builder {
+        private final List<String> lemmas = new ArrayList<>();
+        private final List<Integer> frequencies = new ArrayList<>();
+
+        public void add(String lemma, int frequency) {
+            lemmas.add(lemma);
+            frequencies.add(frequency);
+        }
+
+        public FuzzyLemmaIndex build() {
+            Map<Long, int[]> lists = new HashMap<>();
+            for (int index = 0; index < lemmas.size(); index++) {
+                for (long trigram : trigrams(lemmas.get(index))) {
+                    int[] list = lists.computeIfAbsent(trigram, t -> new int[4]);
+                    if (list[0] + 1 == list.length) {
+                        list = Arrays.copyOf(list, list.length * 2);
+                        lists.put(trigram, list);
+                    }
+                    list[++list[0]] = index;
+                }
+            }
+            Map<Long, int[]> postings = new HashMap<>(lists.size() * 4 / 3 + 1);
+            lists.forEach((trigram, list) -> postings.put(trigram, Arrays.copyOfRange(list, 1, list[0] + 1)));
+            return new FuzzyLemmaIndex(lemmas.toArray(String[]::new),
+                    frequencies.stream().mapToInt(Integer::intValue).toArray(), postings);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package searchengine.services.search;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import searchengine.model.SiteEntity;
+import searchengine.repositories.SiteRepository;
+import searchengine.services.LemmaDictionary;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Автодополнение поискового запроса по леммам сайтов. Индексы {@link CompletionIndex} строятся из словаря
+ * лемм в памяти при старте и заново для сайта, индексация которого завершилась. Новые индексы подменяют
+ * старые одной записью volatile-ссылки на неизменяемую карту, поэтому запросы читают их без блокировок.
+ */
+@Component
+@Log4j2
+@RequiredArgsConstructor
+public class LemmaCompletion {
+    private final LemmaDictionary lemmaDictionary;
+    private final SiteRepository siteRepository;
+    private volatile Map<String, CompletionIndex> sites = Map.of();
+
+    @PostConstruct
+    public void load() {
+        for (SiteEntity siteEntity : siteRepository.findAll()) {
+            rebuildSite(siteEntity);
+        }
+    }
+
+    /**
+     * @param siteUrl адрес сайта или null - дополнять по всем сайтам, частоты лемм на сайтах складываются
+     */
+    public List<String> complete(String prefix, String siteUrl, int limit) {
+        String key = prefix.strip().toLowerCase(Locale.ROOT);
+        Map<String, CompletionIndex> current = sites;
+        if (siteUrl != null) {
+            return current.getOrDefault(siteUrl, CompletionIndex.EMPTY).complete(key, limit).stream()
+                    .map(CompletionIndex.Completion::lemma).toList();
+        }
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (CompletionIndex index : current.values()) {
+            for (CompletionIndex.Completion completion : index.complete(key, limit)) {
+                frequencies.merge(completion.lemma(), completion.frequency(), Integer::sum);
+            }
+        }
+        return frequencies.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    public void rebuildSite(SiteEntity siteEntity) {
+        long start = System.nanoTime();
+        CompletionIndex.Builder builder = new CompletionIndex.Builder();
+        lemmaDictionary.forEachLemma(siteEntity.getId(), builder::add);
+        CompletionIndex index = builder.build();
+        replace(siteEntity.getUrl(), index);
+        log.info("Completion index for site {} built: {} lemmas in {} ms", siteEntity.getUrl(), index.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    public void removeSite(String siteUrl) {
+        replace(siteUrl, null);
+    }
+
+    private synchronized void replace(String siteUrl, CompletionIndex index) {
+        Map<String, CompletionIndex> updated = new HashMap<>(sites);
+        if (index == null) {
+            updated.remove(siteUrl);
+        } else {
+            updated.put(siteUrl, index);
+        }
+        sites = Map.copyOf(updated);
+    }
+}
@@ -0,0 +1,126 @@
+package searchengine.services.search;
+
+import searchengine.services.DocumentStats;
+
+import static searchengine.services.search.PostingCursor.NO_MORE_PAGES;
+
+/**
+ * Конъюнктивное вычисление запроса с отсечением по оценкам сверху блоков (block-max). Все леммы запроса
+ * обязательны, поэтому кандидаты берутся из списка самой редкой леммы, а остальные списки проверяются
+ * переходом к странице кандидата. Диапазон id делится на окна: окно кончается на ближайшей последней
+ * странице текущих блоков всех списков, и оценка сверху любой страницы окна - сумма
+ * {@link PostingCursor#blockMaxScore} этих блоков. Окно, оценка которого не дотягивает до порога
+ * {@link TopPages#threshold()}, перепрыгивается без чтения страниц, так что и для запроса из одной леммы
+ * читаются только блоки, где есть страницы лучше уже найденных. Внутри окна страница отбрасывается
+ * без проверки остальных списков, как только набранная оценка вместе с оценками сверху непроверенных лемм
+ * не дотягивает до порога.
+ * <p>
+ * Отброшенные страницы не проверены на наличие всех лемм, поэтому при отсечении число найденных страниц
+ * оценивается по доле совпадений среди проверенных кандидатов.
+ */
+public class MaxScoreEvaluator {
+    private static final int DEADLINE_CHECK_MASK = 0x3FF;
+
+    private final PostingCursor[] cursors;
+    private final ScoringModel.TermScorer[] scorers;
+    private final float[] maxScores;
+
+    /**
+     * @param cursors  списки страниц лемм по возрастанию частоты леммы
+     * @param scorers  оценка вклада каждой леммы
+     * @param maxRanks наибольший rank каждой леммы на сайте, 0 - неизвестен; ограничивает оценки блоков,
+     *                 в том числе неизвестные
+     */
+    public MaxScoreEvaluator(PostingCursor[] cursors, ScoringModel.TermScorer[] scorers, int[] maxRanks) {
+        this.cursors = cursors;
+        this.scorers = scorers;
+        maxScores = new float[cursors.length];
+        for (int i = 0; i < cursors.length; i++) {
+            maxScores[i] = scorers[i].maxScore(maxRanks[i]);
+        }
+    }
+
+    /**
+     * @param deadline System.nanoTime(), после которого вычисление останавливается и topPages помечается
+     *                 {@link TopPages#truncate()}
+     */
+    public void evaluate(DocumentStats documentStats, TopPages topPages, long deadline) {
+        PostingCursor lead = cursors[0];
+        float[] remainingBounds = new float[cursors.length + 1];
+        int steps = 0;
+        int matches = 0;
+        int rejected = 0;
+        int skipped = 0;
+        int target = 0;
+        windows:
+        while (target != NO_MORE_PAGES) {
+            if ((++steps & DEADLINE_CHECK_MASK) == 0 && System.nanoTime() - deadline > 0) {
+                topPages.truncate();
+                skipped += lead.size() - lead.position();
+                break;
+            }
+            int windowEnd = NO_MORE_PAGES;
+            for (int i = cursors.length - 1; i >= 0; i--) {
+                int blockEnd = cursors[i].advanceShallow(target);
+                if (blockEnd == NO_MORE_PAGES) {
+                    break windows;
+                }
+                windowEnd = Math.min(windowEnd, blockEnd);
+                remainingBounds[i] = remainingBounds[i + 1] + blockBound(i);
+            }
+            if (topPages.isFull() && remainingBounds[0] < topPages.threshold()) {
+                int from = lead.position();
+                target = lead.advance(windowEnd + 1);
+                skipped += lead.position() - from;
+                continue;
+            }
+
+            int pageId = lead.advance(target);
+            while (pageId <= windowEnd) {
+                if ((++steps & DEADLINE_CHECK_MASK) == 0 && System.nanoTime() - deadline > 0) {
+                    topPages.truncate();
+                    skipped += lead.size() - lead.position();
+                    break windows;
+                }
+                int pageLength = documentStats.getLength(pageId);
+                float score = scorers[0].score(lead.rank(), pageLength);
+                boolean found = true;
+                for (int j = 1; j < cursors.length; j++) {
+                    if (topPages.isFull() && score + remainingBounds[j] < topPages.threshold()) {
+                        skipped++;
+                        found = false;
+                        break;
+                    }
+                    int otherPageId = cursors[j].advance(pageId);
+                    if (otherPageId != pageId) {
+                        rejected++;
+                        if (otherPageId == NO_MORE_PAGES) {
+                            break windows;
+                        }
+                        found = false;
+                        break;
+                    }
+                    score += scorers[j].score(cursors[j].rank(), pageLength);
+                }
+                if (found) {
+                    matches++;
+                    topPages.offer(pageId, score);
+                }
+                pageId = lead.advance(pageId + 1);
+            }
+            target = pageId;
+        }
+        topPages.addMatches(estimateMatches(matches, rejected, skipped));
+    }
+
+    private float blockBound(int i) {
+        return Math.min(cursors[i].blockMaxScore(scorers[i]), maxScores[i]);
+    }
+
+    private static int estimateMatches(int matches, int rejected, int skipped) {
+        if (skipped == 0 || matches == 0) {
+            return matches;
+        }
+        return matches + Math.round((float) skipped * matches / (matches + rejected));
+    }
+}
@@ -0,0 +1,305 @@
+package searchengine.services.search;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Позиционный индекс текста страницы: для каждой леммы - начала и длины её словоформ в тексте,
+ * и начала предложений. Строится при индексации, по нему сниппет собирается без морфологического разбора.
+ * <p>
+ * Леммы записаны хэшами {@link String#hashCode()}: id новых лемм известны только после записи пачки индекса.
+ * Совпадение хэшей разных лемм приведёт лишь к лишнему выделению слова в сниппете.
+ */
+public class PagePositions {
+    private final int[] sentenceStarts;
+    private final int[] lemmaHashes;
+    private final int[] tokenOffsets;
+    private final int[] tokenStarts;
+    private final int[] tokenLengths;
+
+    private PagePositions(int[] sentenceStarts, int[] lemmaHashes, int[] tokenOffsets,
+                          int[] tokenStarts, int[] tokenLengths) {
+        this.sentenceStarts = sentenceStarts;
+        this.lemmaHashes = lemmaHashes;
+        this.tokenOffsets = tokenOffsets;
+        this.tokenStarts = tokenStarts;
+        this.tokenLengths = tokenLengths;
+    }
+
+    /**
+     * @return начало предложения, в котором находится offset
+     */
+    public int sentenceStart(int offset) {
+        int i = Arrays.binarySearch(sentenceStarts, offset);
+        if (i >= 0) {
+            return sentenceStarts[i];
+        }
+        i = -i - 2;
+        return i < 0 ? 0 : sentenceStarts[i];
+    }
+
+    /**
+     * @return начало первого предложения, которое начинается не раньше offset, или -1
+     */
+    public int nextSentenceStart(int offset) {
+        int i = Arrays.binarySearch(sentenceStarts, offset);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i < sentenceStarts.length ? sentenceStarts[i] : -1;
+    }
+
+    /**
+     * Словоформы лемм в порядке следования в тексте. Словоформа, относящаяся к нескольким леммам,
+     * возвращается один раз.
+     */
+    public Occurrences occurrences(Collection<String> lemmas) {
+        long[] packed = new long[0];
+        int size = 0;
+        int lemmaIndex = 0;
+        for (String lemma : lemmas) {
+            if (lemmaIndex > 0xFF) {
+                break;
+            }
+            int i = Arrays.binarySearch(lemmaHashes, lemma.hashCode());
+            if (i >= 0) {
+                int from = tokenOffsets[i];
+                int to = tokenOffsets[i + 1];
+                if (size + to - from > packed.length) {
+                    packed = Arrays.copyOf(packed, size + to - from);
+                }
+                for (int token = from; token < to; token++) {
+                    packed[size++] = (long) tokenStarts[token] << 32 | (long) token << 8 | lemmaIndex;
+                }
+            }
+            lemmaIndex++;
+        }
+        Arrays.sort(packed, 0, size);
+        int[] starts = new int[size];
+        int[] lengths = new int[size];
+        int[] lemmaIndexes = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int start = (int) (packed[i] >>> 32);
+            if (count > 0 && starts[count - 1] == start) {
+                continue;
+            }
+            starts[count] = start;
+            lengths[count] = tokenLengths[(int) (packed[i] & 0xFFFFFFFFL) >>> 8];
+            lemmaIndexes[count] = (int) (packed[i] & 0xFF);
+            count++;
+        }
+        return new Occurrences(Arrays.copyOf(starts, count), Arrays.copyOf(lengths, count),
+                Arrays.copyOf(lemmaIndexes, count));
+    }
+
+    /**
+     * Проверяет, что слова фразы встречаются в тексте подряд: между словоформами соседних слов нет других
+     * проиндексированных словоформ и не больше maxGap символов (служебные части речи, знаки препинания и слова
+     * не на русском в индекс не попадают).
+     *
+     * @param words леммы каждого слова фразы, словоформа подходит слову, если относится к любой из его лемм
+     */
+    public boolean containsPhrase(List<? extends Collection<String>> words, int maxGap) {
+        Occurrences[] occurrences = new Occurrences[words.size()];
+        for (int i = 0; i < occurrences.length; i++) {
+            occurrences[i] = occurrences(words.get(i));
+            if (occurrences[i].size() == 0) {
+                return false;
+            }
+        }
+        int[] allStarts = sortedTokenStarts();
+        for (int first = 0; first < occurrences[0].size(); first++) {
+            int start = occurrences[0].starts()[first];
+            int end = start + occurrences[0].lengths()[first];
+            int word = 1;
+            while (word < occurrences.length) {
+                int next = Arrays.binarySearch(allStarts, start) + 1;
+                while (next < allStarts.length && allStarts[next] < end) {
+                    next++;
+                }
+                if (next == allStarts.length || allStarts[next] - end > maxGap) {
+                    break;
+                }
+                int position = Arrays.binarySearch(occurrences[word].starts(), allStarts[next]);
+                if (position < 0) {
+                    break;
+                }
+                start = allStarts[next];
+                end = start + occurrences[word].lengths()[position];
+                word++;
+            }
+            if (word == occurrences.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] sortedTokenStarts() {
+        int[] starts = Arrays.copyOf(tokenStarts, tokenOffsets[lemmaHashes.length]);
+        Arrays.sort(starts);
+        int count = 0;
+        for (int i = 0; i < starts.length; i++) {
+            if (count == 0 || starts[count - 1] != starts[i]) {
+                starts[count++] = starts[i];
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * Формат: число предложений и разности их начал, затем число лемм и для каждой леммы по возрастанию
+     * хэша - хэш, число словоформ и пары (разность начала с предыдущей словоформой, длина).
+     * Числа, кроме хэшей, записаны varint.
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(tokenStarts.length * 3 + 16);
+        writeVarInt(out, sentenceStarts.length);
+        int previous = 0;
+        for (int start : sentenceStarts) {
+            writeVarInt(out, start - previous);
+            previous = start;
+        }
+        writeVarInt(out, lemmaHashes.length);
+        for (int i = 0; i < lemmaHashes.length; i++) {
+            int hash = lemmaHashes[i];
+            out.write(hash >>> 24);
+            out.write(hash >>> 16);
+            out.write(hash >>> 8);
+            out.write(hash);
+            writeVarInt(out, tokenOffsets[i + 1] - tokenOffsets[i]);
+            previous = 0;
+            for (int token = tokenOffsets[i]; token < tokenOffsets[i + 1]; token++) {
+                writeVarInt(out, tokenStarts[token] - previous);
+                writeVarInt(out, tokenLengths[token]);
+                previous = tokenStarts[token];
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static PagePositions fromBytes(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        int[] sentenceStarts = new int[readVarInt(in)];
+        int previous = 0;
+        for (int i = 0; i < sentenceStarts.length; i++) {
+            previous += readVarInt(in);
+            sentenceStarts[i] = previous;
+        }
+        int lemmaCount = readVarInt(in);
+        int[] lemmaHashes = new int[lemmaCount];
+        int[] tokenOffsets = new int[lemmaCount + 1];
+        int[] tokenStarts = new int[16];
+        int[] tokenLengths = new int[16];
+        int tokenCount = 0;
+        for (int i = 0; i < lemmaCount; i++) {
+            lemmaHashes[i] = in.getInt();
+            int count = readVarInt(in);
+            if (tokenCount + count > tokenStarts.length) {
+                int capacity = Math.max(tokenStarts.length * 2, tokenCount + count);
+                tokenStarts = Arrays.copyOf(tokenStarts, capacity);
+                tokenLengths = Arrays.copyOf(tokenLengths, capacity);
+            }
+            previous = 0;
+            for (int token = 0; token < count; token++) {
+                previous += readVarInt(in);
+                tokenStarts[tokenCount] = previous;
+                tokenLengths[tokenCount] = readVarInt(in);
+                tokenCount++;
+            }
+            tokenOffsets[i + 1] = tokenCount;
+        }
+        return new PagePositions(sentenceStarts, lemmaHashes, tokenOffsets, tokenStarts, tokenLengths);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Словоформы лемм запроса: начало, длина и номер леммы в запросе
+     */
+    public record Occurrences(int[] starts, int[] lengths, int[] lemmaIndexes) {
+        public int size() {
+            return starts.length;
+        }
+    }
+
+    /**
+     * Собирает индекс, словоформы добавляются в порядке следования в тексте.
+     */
+    public static class Builder {
+        private int[] sentenceStarts = new int[16];
+        private int sentenceCount;
+        private int[] hashes = new int[64];
+        private int[] starts = new int[64];
+        private int[] lengths = new int[64];
+        private int size;
+
+        public void addSentence(int start) {
+            if (sentenceCount == sentenceStarts.length) {
+                sentenceStarts = Arrays.copyOf(sentenceStarts, sentenceCount * 2);
+            }
+            sentenceStarts[sentenceCount++] = start;
+        }
+
+        public void add(String lemma, int start, int length) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            hashes[size] = lemma.hashCode();
+            starts[size] = start;
+            lengths[size] = length;
+            size++;
+        }
+
+        public PagePositions build() {
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = (long) hashes[i] << 32 | i;
+            }
+            Arrays.sort(keys);
+            int[] lemmaHashes = new int[size];
+            int[] tokenOffsets = new int[size + 1];
+            int[] tokenStarts = new int[size];
+            int[] tokenLengths = new int[size];
+            int lemmaCount = 0;
+            for (int i = 0; i < size; i++) {
+                int token = (int) keys[i];
+                int hash = hashes[token];
+                if (lemmaCount == 0 || lemmaHashes[lemmaCount - 1] != hash) {
+                    lemmaHashes[lemmaCount] = hash;
+                    tokenOffsets[lemmaCount++] = i;
+                }
+                tokenStarts[i] = starts[token];
+                tokenLengths[i] = lengths[token];
+            }
+            tokenOffsets[lemmaCount] = size;
+            return new PagePositions(Arrays.copyOf(sentenceStarts, sentenceCount),
+                    Arrays.copyOf(lemmaHashes, lemmaCount), Arrays.copyOf(tokenOffsets, lemmaCount + 1),
+                    tokenStarts, tokenLengths);
+        }
+    }
+}
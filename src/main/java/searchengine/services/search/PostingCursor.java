@@ -0,0 +1,54 @@
+package searchengine.services.search;
+
+/**
+ * Последовательное чтение списка страниц леммы по возрастанию id с переходом вперёд. Список разбит на блоки,
+ * для каждого известна последняя страница и оценка сверху вклада леммы, так что блоки, которые не нужны,
+ * можно перепрыгнуть, не читая их страниц.
+ */
+public interface PostingCursor {
+    int NO_MORE_PAGES = Integer.MAX_VALUE;
+
+    /**
+     * @return число страниц в списке, включая ещё не отброшенные удалённые
+     */
+    int size();
+
+    /**
+     * @return сколько страниц списка пройдено до текущей
+     */
+    int position();
+
+    /**
+     * @return id текущей страницы, -1 до первого перехода, NO_MORE_PAGES после конца списка
+     */
+    int pageId();
+
+    float rank();
+
+    /**
+     * Переходит к первой странице с id не меньше target.
+     *
+     * @return id этой страницы или NO_MORE_PAGES
+     */
+    int advance(int target);
+
+    /**
+     * Находит блок, в котором может быть страница target, не читая страниц и не меняя текущую.
+     *
+     * @return id, не меньший последней страницы блока, или NO_MORE_PAGES, если страниц не меньше target нет
+     */
+    int advanceShallow(int target);
+
+    /**
+     * @return оценка сверху вклада леммы на страницах блока последнего {@link #advanceShallow},
+     * Float.POSITIVE_INFINITY - неизвестна
+     */
+    float blockMaxScore(ScoringModel.TermScorer scorer);
+
+    /**
+     * @return весь список, если он загружен в память, иначе null
+     */
+    default PostingList loaded() {
+        return null;
+    }
+}
@@ -0,0 +1,237 @@
+package searchengine.services.search;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Список страниц леммы: id страниц по возрастанию и rank леммы на каждой из них.
+ */
+public class PostingList {
+    public static final PostingList EMPTY = new PostingList(new int[0], new float[0], 0);
+
+    /**
+     * Число страниц в блоке курсора {@link #cursor()}
+     */
+    private static final int BLOCK_SIZE = 128;
+
+    private final int[] pageIds;
+    private final float[] ranks;
+    private final int size;
+
+    public PostingList(int[] pageIds, float[] ranks, int size) {
+        this.pageIds = pageIds;
+        this.ranks = ranks;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getPageId(int position) {
+        return pageIds[position];
+    }
+
+    public float getRank(int position) {
+        return ranks[position];
+    }
+
+    public int[] pageIds() {
+        return size == pageIds.length ? pageIds : Arrays.copyOf(pageIds, size);
+    }
+
+    /**
+     * Пересечение двух списков. Проход идёт по более короткому списку, в длинном нужная позиция
+     * ищется галопирующим поиском, так что длинный список не просматривается целиком.
+     *
+     * @return страницы из обоих списков, rank - сумма rank'ов обоих списков
+     */
+    public PostingList intersect(PostingList other) {
+        PostingList shorter = size <= other.size ? this : other;
+        PostingList longer = shorter == this ? other : this;
+        int[] resultIds = new int[shorter.size];
+        float[] resultRanks = new float[shorter.size];
+        int count = 0;
+        int position = 0;
+        for (int i = 0; i < shorter.size && position < longer.size; i++) {
+            int pageId = shorter.pageIds[i];
+            position = longer.advance(position, pageId);
+            if (position < longer.size && longer.pageIds[position] == pageId) {
+                resultIds[count] = pageId;
+                resultRanks[count] = shorter.ranks[i] + longer.ranks[position];
+                count++;
+            }
+        }
+        return new PostingList(resultIds, resultRanks, count);
+    }
+
+    /**
+     * @return страницы хотя бы одного из списков, rank страницы из обоих списков - сумма rank'ов
+     */
+    public PostingList union(PostingList other) {
+        int[] resultIds = new int[size + other.size];
+        float[] resultRanks = new float[size + other.size];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            int pageId = j == other.size || i < size && pageIds[i] < other.pageIds[j] ? pageIds[i] : other.pageIds[j];
+            float rank = 0;
+            if (i < size && pageIds[i] == pageId) {
+                rank += ranks[i++];
+            }
+            if (j < other.size && other.pageIds[j] == pageId) {
+                rank += other.ranks[j++];
+            }
+            resultIds[count] = pageId;
+            resultRanks[count] = rank;
+            count++;
+        }
+        return new PostingList(resultIds, resultRanks, count);
+    }
+
+    /**
+     * @return страницы этого списка, которых нет в other
+     */
+    public PostingList subtract(PostingList other) {
+        return filter(pageId -> !other.contains(pageId));
+    }
+
+    /**
+     * @return все страницы этого списка, к rank'у страниц, которые есть в other, прибавлен их rank в other
+     */
+    public PostingList boost(PostingList other) {
+        float[] resultRanks = Arrays.copyOf(ranks, size);
+        int position = 0;
+        for (int i = 0; i < size && position < other.size; i++) {
+            position = other.advance(position, pageIds[i]);
+            if (position < other.size && other.pageIds[position] == pageIds[i]) {
+                resultRanks[i] += other.ranks[position];
+            }
+        }
+        return new PostingList(pageIds, resultRanks, size);
+    }
+
+    public PostingList filter(IntPredicate pageFilter) {
+        int[] resultIds = new int[size];
+        float[] resultRanks = new float[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (pageFilter.test(pageIds[i])) {
+                resultIds[count] = pageIds[i];
+                resultRanks[count] = ranks[i];
+                count++;
+            }
+        }
+        return new PostingList(resultIds, resultRanks, count);
+    }
+
+    public boolean contains(int pageId) {
+        return Arrays.binarySearch(pageIds, 0, size, pageId) >= 0;
+    }
+
+    /**
+     * @return первая позиция не меньше from, на которой id страницы не меньше pageId
+     */
+    public int advance(int from, int pageId) {
+        int low = from;
+        int high = from;
+        int step = 1;
+        while (high < size && pageIds[high] < pageId) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        int index = Arrays.binarySearch(pageIds, low, Math.min(high + 1, size), pageId);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    public PostingCursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Курсор по списку в памяти, блоки по BLOCK_SIZE страниц
+     */
+    private class Cursor implements PostingCursor {
+        private final int blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        private int position = -1;
+        private int block;
+        private int blockMaxRank = -1;
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int position() {
+            return Math.max(position, 0);
+        }
+
+        @Override
+        public int pageId() {
+            return position < 0 ? -1 : position < size ? pageIds[position] : NO_MORE_PAGES;
+        }
+
+        @Override
+        public float rank() {
+            return ranks[position];
+        }
+
+        @Override
+        public int advance(int target) {
+            if (position >= 0 && (position == size || pageIds[position] >= target)) {
+                return pageId();
+            }
+            position = PostingList.this.advance(Math.max(position, 0), target);
+            return pageId();
+        }
+
+        @Override
+        public int advanceShallow(int target) {
+            int low = block;
+            int high = blockCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (lastPageId(middle) < target) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            if (low != block) {
+                block = low;
+                blockMaxRank = -1;
+            }
+            return block == blockCount ? NO_MORE_PAGES : lastPageId(block);
+        }
+
+        /**
+         * Длины страниц в памяти не хранятся, поэтому оценка блока - по его наибольшему rank
+         */
+        @Override
+        public float blockMaxScore(ScoringModel.TermScorer scorer) {
+            if (block == blockCount) {
+                return Float.POSITIVE_INFINITY;
+            }
+            if (blockMaxRank < 0) {
+                float max = 0;
+                for (int i = block * BLOCK_SIZE; i < Math.min((block + 1) * BLOCK_SIZE, size); i++) {
+                    max = Math.max(max, ranks[i]);
+                }
+                blockMaxRank = (int) Math.ceil(max);
+            }
+            return scorer.maxScore(blockMaxRank);
+        }
+
+        @Override
+        public PostingList loaded() {
+            return PostingList.this;
+        }
+
+        private int lastPageId(int block) {
+            return pageIds[Math.min((block + 1) * BLOCK_SIZE, size) - 1];
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package searchengine.services.search;
+
+import java.util.Arrays;
+
+/**
+ * Накопление списка страниц леммы. Если страницы добавлялись не по возрастанию id, при сборке они сортируются.
+ */
+public class PostingListBuilder {
+    private int[] pageIds;
+    private float[] ranks;
+    private int size;
+    private boolean sorted = true;
+
+    public PostingListBuilder(int expectedSize) {
+        pageIds = new int[Math.max(expectedSize, 16)];
+        ranks = new float[pageIds.length];
+    }
+
+    public void add(int pageId, float rank) {
+        if (size == pageIds.length) {
+            pageIds = Arrays.copyOf(pageIds, size * 2);
+            ranks = Arrays.copyOf(ranks, size * 2);
+        }
+        if (size > 0 && pageIds[size - 1] >= pageId) {
+            sorted = false;
+        }
+        pageIds[size] = pageId;
+        ranks[size++] = rank;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public PostingList build() {
+        if (size == 0) {
+            return PostingList.EMPTY;
+        }
+        if (!sorted) {
+            sort();
+        }
+        return new PostingList(pageIds, ranks, size);
+    }
+
+    private void sort() {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) pageIds[i] << 32) | Float.floatToIntBits(ranks[i]) & 0xFFFFFFFFL;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < size; i++) {
+            pageIds[i] = (int) (keys[i] >>> 32);
+            ranks[i] = Float.intBitsToFloat((int) keys[i]);
+        }
+        sorted = true;
+    }
+}
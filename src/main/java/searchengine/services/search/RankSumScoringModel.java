@@ -0,0 +1,28 @@
+package searchengine.services.search;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import searchengine.services.DocumentStats.SiteStats;
+
+/**
+ * Прежняя модель: оценка - сумма rank лемм запроса на странице.
+ */
+@Component
+@ConditionalOnProperty(prefix = "search-setting", name = "scoring", havingValue = "rank")
+public class RankSumScoringModel implements ScoringModel {
+
+    @Override
+    public TermScorer termScorer(int documentFrequency, SiteStats site) {
+        return new TermScorer() {
+            @Override
+            public float score(float rank, int pageLength) {
+                return rank;
+            }
+
+            @Override
+            public float maxScore(int maxRank) {
+                return maxRank <= 0 ? Float.POSITIVE_INFINITY : maxRank;
+            }
+        };
+    }
+}
@@ -0,0 +1,97 @@
+package searchengine.services.search;
+
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Результат ранжирования запроса: id лучших найденных страниц по убыванию оценки и общее число найденных.
+ */
+public class RankedPages {
+    public static final RankedPages EMPTY = new RankedPages(new int[0], new float[0], 0);
+
+    private final int[] pageIds;
+    private final float[] ranks;
+    private final int totalCount;
+    private final boolean truncated;
+
+    public RankedPages(int[] pageIds, float[] ranks, int totalCount) {
+        this(pageIds, ranks, totalCount, false);
+    }
+
+    /**
+     * @param truncated ранжирование остановлено по сроку запроса, проверены не все страницы
+     */
+    public RankedPages(int[] pageIds, float[] ranks, int totalCount, boolean truncated) {
+        this.pageIds = pageIds;
+        this.ranks = ranks;
+        this.totalCount = totalCount;
+        this.truncated = truncated;
+    }
+
+    /**
+     * @return сколько лучших страниц сохранено
+     */
+    public int size() {
+        return pageIds.length;
+    }
+
+    /**
+     * @return сколько всего страниц подходит под запрос
+     */
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public int getPageId(int position) {
+        return pageIds[position];
+    }
+
+    public float getRank(int position) {
+        return ranks[position];
+    }
+
+    public float getMaxRank() {
+        return ranks.length == 0 ? 0F : ranks[0];
+    }
+
+    /**
+     * Слияние результатов сайтов в k лучших: куча с текущей страницей каждого результата, на каждом шаге
+     * извлекается лучшая. Порядок тот же, что у {@link TopPages}: по убыванию оценки, при равной - по убыванию id.
+     * Число найденных складывается, результат неполный, если неполон любой из частей.
+     */
+    public static RankedPages merge(List<RankedPages> parts, int k) {
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> {
+            RankedPages first = parts.get(a[0]);
+            RankedPages second = parts.get(b[0]);
+            int byRank = Float.compare(second.getRank(b[1]), first.getRank(a[1]));
+            return byRank != 0 ? byRank : Integer.compare(second.getPageId(b[1]), first.getPageId(a[1]));
+        });
+        int totalCount = 0;
+        boolean truncated = false;
+        for (int i = 0; i < parts.size(); i++) {
+            RankedPages part = parts.get(i);
+            totalCount += part.getTotalCount();
+            truncated |= part.isTruncated();
+            if (part.size() > 0) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+        int size = Math.min(k, heads.stream().mapToInt(head -> parts.get(head[0]).size()).sum());
+        int[] pageIds = new int[size];
+        float[] ranks = new float[size];
+        for (int i = 0; i < size; i++) {
+            int[] head = heads.poll();
+            RankedPages part = parts.get(head[0]);
+            pageIds[i] = part.getPageId(head[1]);
+            ranks[i] = part.getRank(head[1]);
+            if (++head[1] < part.size()) {
+                heads.add(head);
+            }
+        }
+        return new RankedPages(pageIds, ranks, totalCount, truncated);
+    }
+}
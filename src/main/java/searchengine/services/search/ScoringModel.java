@@ -0,0 +1,37 @@
+package searchengine.services.search;
+
+import searchengine.services.DocumentStats.SiteStats;
+
+/**
+ * Модель релевантности: оценка страницы - сумма вкладов лемм запроса. Реализация выбирается
+ * настройкой search-setting.scoring.
+ */
+public interface ScoringModel {
+    /**
+     * @param documentFrequency на скольких страницах сайтов поиска есть лемма
+     * @param site              статистика страниц сайтов поиска {@link CollectionStats}
+     */
+    TermScorer termScorer(int documentFrequency, SiteStats site);
+
+    /**
+     * Вклад одной леммы запроса на одном сайте
+     */
+    interface TermScorer {
+        /**
+         * Не убывает с ростом rank и не растёт с ростом известной длины страницы: на этом строятся оценки
+         * сверху блоков списков страниц.
+         *
+         * @param rank       сколько раз лемма встречается на странице
+         * @param pageLength длина страницы в леммах, 0 - неизвестна
+         */
+        float score(float rank, int pageLength);
+
+        /**
+         * Оценка сверху вклада леммы на любой странице, для отсечения страниц, которые не попадут в лучшие
+         *
+         * @param maxRank наибольший rank леммы на страницах сайта, 0 - неизвестен
+         * @return не меньше score(rank, pageLength) для любых rank не больше maxRank
+         */
+        float maxScore(int maxRank);
+    }
+}
@@ -0,0 +1,69 @@
+package searchengine.services.search;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.stereotype.Component;
+import searchengine.config.SearchSetting;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Ограниченный пул выполнения поисковых запросов, отдельный от потоков Tomcat: медленные запросы занимают
+ * только его потоки, остальное API продолжает отвечать. Когда очередь пула заполнена, запрос сразу
+ * отклоняется, а не ждёт, пока истечёт его срок.
+ * <p>
+ * Сайты одного запроса ранжируются во втором пуле без очереди: если свободного потока нет, сайт ранжирует
+ * поток запроса, поэтому под нагрузкой запросы не ждут друг друга, а выполняются последовательно.
+ */
+@Component
+public class SearchExecutor {
+    private final ExecutorService executor;
+    private final ExecutorService siteExecutor;
+
+    public SearchExecutor(SearchSetting setting, MeterRegistry meterRegistry) {
+        int threads = setting.getSearchThreads() > 0
+                ? setting.getSearchThreads() : Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(setting.getSearchQueueCapacity()), threadFactory("search-request-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor = ExecutorServiceMetrics.monitor(meterRegistry, pool, "search.request");
+
+        int siteThreads = setting.getSiteSearchThreads() > 0
+                ? setting.getSiteSearchThreads() : Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor sitePool = new ThreadPoolExecutor(siteThreads, siteThreads, 0, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(), threadFactory("search-site-"), new ThreadPoolExecutor.CallerRunsPolicy());
+        siteExecutor = ExecutorServiceMetrics.monitor(meterRegistry, sitePool, "search.site");
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+        siteExecutor.shutdownNow();
+    }
+
+    /**
+     * @throws RejectedExecutionException если очередь пула заполнена
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, executor);
+    }
+
+    /**
+     * Ранжирование сайта запроса; без свободного потока выполняется в вызывающем потоке
+     */
+    public <T> CompletableFuture<T> supplySite(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, siteExecutor);
+    }
+}
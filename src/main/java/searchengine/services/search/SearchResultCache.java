@@ -0,0 +1,146 @@
+package searchengine.services.search;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import searchengine.config.SearchSetting;
+import searchengine.model.SiteEntity;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Кэш ранжированных списков страниц по ключу плана запроса и списку сайтов.
+ * Используется для постраничного вывода, сбрасывается при изменении индекса сайта.
+ * Результаты, ранжирование которых остановлено по сроку запроса, не сохраняются.
+ * <p>
+ * Ранжирование выполняется в потоке запроса вне блокировок кэша: запрос занимает ключ незавершённым
+ * future, и одновременные запросы того же ключа ждут его. Каждое изменение индекса сайта получает
+ * очередное поколение; результат, ранжирование которого началось до изменения одного из его сайтов,
+ * устарел и не отдаётся другим запросам, даже если успел попасть в кэш после сброса.
+ */
+@Component
+public class SearchResultCache {
+    private final AsyncCache<SearchKey, CachedPages> cache;
+    private final AtomicLong generation = new AtomicLong();
+    /**
+     * id сайта -> поколение последнего изменения его индекса
+     */
+    private final Map<Integer, Long> siteGenerations = new ConcurrentHashMap<>();
+    /**
+     * Поколение последнего сброса всего кэша
+     */
+    private final AtomicLong allGeneration = new AtomicLong();
+
+    public SearchResultCache(SearchSetting setting, MeterRegistry meterRegistry) {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(setting.getCacheMaxPages())
+                .weigher((SearchKey key, CachedPages pages) -> pages.pages().size() + 1)
+                .expireAfterWrite(Duration.ofSeconds(setting.getCacheTtl()))
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "searchResults");
+    }
+
+    /**
+     * @param depth  сколько лучших страниц нужно; сохранённый список, отобранный на меньшую глубину,
+     *               ранжируется заново
+     * @param loader ранжирование, выполняется в вызывающем потоке
+     */
+    public RankedPages get(String queryKey, List<SiteEntity> siteEntities, int depth, Supplier<RankedPages> loader) {
+        SearchKey key = new SearchKey(queryKey,
+                siteEntities.stream().map(SiteEntity::getId).sorted().toList());
+        while (true) {
+            CompletableFuture<CachedPages> cached = cache.getIfPresent(key);
+            if (cached != null) {
+                CachedPages pages = await(cached);
+                if (pages != null && isUsable(pages, key, depth)) {
+                    return pages.pages();
+                }
+            }
+            CompletableFuture<CachedPages> loading = new CompletableFuture<>();
+            boolean claimed = cached == null ? cache.asMap().putIfAbsent(key, loading) == null
+                    : cache.asMap().replace(key, cached, loading);
+            if (claimed) {
+                return load(key, loading, loader);
+            }
+        }
+    }
+
+    private RankedPages load(SearchKey key, CompletableFuture<CachedPages> loading, Supplier<RankedPages> loader) {
+        long startGeneration = generation.get();
+        RankedPages pages;
+        try {
+            pages = loader.get();
+        } catch (RuntimeException e) {
+            cache.asMap().remove(key, loading);
+            loading.completeExceptionally(e);
+            throw e;
+        }
+        CachedPages cachedPages = new CachedPages(pages, startGeneration);
+        if (pages.isTruncated() || !isCurrent(cachedPages, key)) {
+            cache.asMap().remove(key, loading);
+        }
+        loading.complete(cachedPages);
+        return pages;
+    }
+
+    /**
+     * @return результат ранжирования другим запросом или null, если оно завершилось ошибкой
+     */
+    private static CachedPages await(CompletableFuture<CachedPages> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            return null;
+        }
+    }
+
+    private boolean isUsable(CachedPages cached, SearchKey key, int depth) {
+        RankedPages pages = cached.pages();
+        return !pages.isTruncated() && pages.size() >= Math.min(depth, pages.getTotalCount())
+                && isCurrent(cached, key);
+    }
+
+    /**
+     * Индекс сайтов ключа не менялся после начала ранжирования
+     */
+    private boolean isCurrent(CachedPages cached, SearchKey key) {
+        if (allGeneration.get() > cached.generation()) {
+            return false;
+        }
+        for (int siteId : key.siteIds()) {
+            if (siteGenerations.getOrDefault(siteId, 0L) > cached.generation()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void invalidateSite(int siteId) {
+        siteGenerations.merge(siteId, generation.incrementAndGet(), Math::max);
+        cache.asMap().keySet().removeIf(key -> key.siteIds().contains(siteId));
+    }
+
+    public void invalidateAll() {
+        allGeneration.accumulateAndGet(generation.incrementAndGet(), Math::max);
+        cache.synchronous().invalidateAll();
+    }
+
+    private record SearchKey(String queryKey, List<Integer> siteIds) {
+    }
+
+    /**
+     * @param generation поколение на начало ранжирования
+     */
+    private record CachedPages(RankedPages pages, long generation) {
+    }
+}
@@ -0,0 +1,111 @@
+package searchengine.services.search;
+
+import java.util.Collection;
+
+/**
+ * Сниппет по позиционному индексу страницы: окно текста длиной около length символов, в котором встречается
+ * больше всего различных лемм запроса, расширенное до границ предложений. Словоформы лемм выделяются &lt;b&gt;.
+ */
+public final class SnippetBuilder {
+
+    private SnippetBuilder() {
+    }
+
+    /**
+     * @param text      текст страницы, по которому построен positions
+     * @param positions позиционный индекс текста
+     * @param lemmas    леммы запроса
+     * @param length    желаемая длина сниппета в символах
+     */
+    public static String build(String text, PagePositions positions, Collection<String> lemmas, int length) {
+        PagePositions.Occurrences occurrences = positions.occurrences(lemmas);
+        int first = 0;
+        int last = -1;
+        if (occurrences.size() > 0) {
+            int[] window = bestWindow(occurrences, lemmas.size(), length);
+            first = window[0];
+            last = window[1];
+        }
+        int matchStart = last < 0 ? 0 : occurrences.starts()[first];
+        int matchEnd = last < 0 ? 0 : occurrences.starts()[last] + occurrences.lengths()[last];
+
+        int start = positions.sentenceStart(matchStart);
+        if (matchStart - start > length / 2) {
+            start = wordStart(text, matchStart - length / 4);
+        }
+        int end = Math.min(text.length(), Math.max(matchEnd, start + length));
+        int sentenceEnd = positions.nextSentenceStart(end);
+        if (sentenceEnd >= 0 && sentenceEnd - end <= length / 2) {
+            end = sentenceEnd;
+        } else if (sentenceEnd < 0 && text.length() - end <= length / 2) {
+            end = text.length();
+        } else {
+            end = wordEnd(text, end);
+        }
+
+        StringBuilder snippet = new StringBuilder(end - start + 32);
+        int copied = start;
+        for (int i = 0; i < occurrences.size(); i++) {
+            int wordStart = occurrences.starts()[i];
+            int wordEnd = wordStart + occurrences.lengths()[i];
+            if (wordStart < start || wordEnd > end) {
+                if (wordStart >= end) {
+                    break;
+                }
+                continue;
+            }
+            snippet.append(text, copied, wordStart).append("<b>").append(text, wordStart, wordEnd).append("</b>");
+            copied = wordEnd;
+        }
+        return snippet.append(text, copied, end).toString().trim();
+    }
+
+    /**
+     * Сниппет из начала текста, обрезанный по границе слова
+     */
+    public static String prefix(String text, int length) {
+        return text.length() <= length ? text.trim() : text.substring(0, wordEnd(text, length)).trim();
+    }
+
+    /**
+     * Окно словоформ не длиннее length символов с наибольшим числом различных лемм, при равенстве - с наибольшим
+     * числом словоформ, при равенстве - первое.
+     *
+     * @return номера первой и последней словоформы окна
+     */
+    private static int[] bestWindow(PagePositions.Occurrences occurrences, int lemmaCount, int length) {
+        int[] starts = occurrences.starts();
+        int[] lemmaIndexes = occurrences.lemmaIndexes();
+        int[] counts = new int[Math.max(lemmaCount, 1)];
+        int distinct = 0;
+        int[] best = {0, 0};
+        int bestDistinct = 0;
+        int from = 0;
+        for (int to = 0; to < starts.length; to++) {
+            if (counts[lemmaIndexes[to]]++ == 0) {
+                distinct++;
+            }
+            while (starts[to] - starts[from] > length) {
+                if (--counts[lemmaIndexes[from]] == 0) {
+                    distinct--;
+                }
+                from++;
+            }
+            if (distinct > bestDistinct || distinct == bestDistinct && to - from > best[1] - best[0]) {
+                bestDistinct = distinct;
+                best = new int[]{from, to};
+            }
+        }
+        return best;
+    }
+
+    private static int wordStart(String text, int offset) {
+        int space = text.lastIndexOf(' ', Math.max(offset, 0));
+        return space < 0 ? 0 : space + 1;
+    }
+
+    private static int wordEnd(String text, int offset) {
+        int space = text.indexOf(' ', offset);
+        return space < 0 ? text.length() : space;
+    }
+}
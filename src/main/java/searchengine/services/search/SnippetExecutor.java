@@ -0,0 +1,44 @@
+package searchengine.services.search;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.stereotype.Component;
+import searchengine.config.SearchSetting;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ограниченный пул построения сниппетов результатов поиска. Когда очередь заполнена, задача отклоняется -
+ * результат показывается со сниппетом из начала текста, а не ждёт освобождения пула.
+ */
+@Component
+public class SnippetExecutor {
+    private final ExecutorService executor;
+
+    public SnippetExecutor(SearchSetting setting, MeterRegistry meterRegistry) {
+        int threads = setting.getSnippetThreads() > 0
+                ? setting.getSnippetThreads() : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(setting.getSnippetQueueCapacity()), r -> {
+            Thread thread = new Thread(r, "search-snippet-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        executor = ExecutorServiceMetrics.monitor(meterRegistry, pool, "search.snippet");
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @throws RejectedExecutionException если очередь пула заполнена
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+}
@@ -0,0 +1,145 @@
+package searchengine.services.search;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import searchengine.config.SearchSetting;
+import searchengine.model.SiteEntity;
+import searchengine.repositories.SiteRepository;
+import searchengine.services.LemmaDictionary;
+import searchengine.services.LemmaFinder;
+import searchengine.services.search.query.SearchQuery;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Исправление опечаток в запросе по словарям лемм сайтов. Слово считается неизвестным, если ни одной его
+ * леммы нет ни на одном из сайтов поиска; для него ищется ближайшая лемма словарей {@link FuzzyLemmaIndex}.
+ * Индексы сайтов строятся при старте и заново для сайта, индексация которого завершилась, вне запросов:
+ * построение индекса большого словаря занимает секунды. Как в {@link LemmaCompletion}, новые индексы подменяют
+ * старые одной записью volatile-ссылки на неизменяемую карту. Сайты без индекса в исправлении не участвуют.
+ */
+@Component
+@Log4j2
+@RequiredArgsConstructor
+public class SpellingCorrector {
+    private final LemmaDictionary lemmaDictionary;
+    private final LemmaFinder lemmaFinder;
+    private final SearchSetting searchSetting;
+    private final SiteRepository siteRepository;
+    private volatile Map<Integer, FuzzyLemmaIndex> sites = Map.of();
+
+    private static final int MIN_WORD_LENGTH = 3;
+
+    private static final int LONG_WORD_LENGTH = 6;
+
+    @PostConstruct
+    public void load() {
+        for (SiteEntity siteEntity : siteRepository.findAll()) {
+            rebuildSite(siteEntity);
+        }
+    }
+
+    /**
+     * @return замены неизвестных слов обязательных и необязательных условий запроса,
+     * пустая - если исправлять нечего
+     */
+    public Map<String, String> correct(SearchQuery query, List<Integer> siteIds) {
+        Map<String, String> corrections = new LinkedHashMap<>();
+        Map<Integer, FuzzyLemmaIndex> current = sites;
+        if (searchSetting.getSpellingMaxEdits() <= 0 || siteIds.stream().noneMatch(current::containsKey)) {
+            return corrections;
+        }
+        for (SearchQuery.Clause clause : query.clauses()) {
+            if (clause.occur() == SearchQuery.Occur.EXCLUDED) {
+                continue;
+            }
+            for (SearchQuery.Unit unit : clause.alternatives()) {
+                for (String word : unit.words()) {
+                    if (!corrections.containsKey(word) && isUnknown(word, siteIds)) {
+                        String correction = suggest(word, siteIds, current);
+                        if (correction != null) {
+                            corrections.put(word, correction);
+                        }
+                    }
+                }
+            }
+        }
+        return corrections;
+    }
+
+    private boolean isUnknown(String word, List<Integer> siteIds) {
+        Set<String> lemmas = lemmaFinder.getLemmaSet(word);
+        if (lemmas.isEmpty() || word.length() < MIN_WORD_LENGTH) {
+            return false;
+        }
+        for (int siteId : siteIds) {
+            for (String lemma : lemmas) {
+                if (lemmaDictionary.find(siteId, lemma) != null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ищет ближайшую лемму к самому слову и к его леммам: предсказанная морфологией лемма слова с опечаткой
+     * бывает дальше от правильной, чем словоформа. Частоты одной леммы на разных сайтах складываются.
+     */
+    private String suggest(String word, List<Integer> siteIds, Map<Integer, FuzzyLemmaIndex> indexes) {
+        Set<String> variants = new LinkedHashSet<>();
+        variants.add(word.toLowerCase(Locale.ROOT));
+        variants.addAll(lemmaFinder.getLemmaSet(word));
+        Map<String, FuzzyLemmaIndex.Suggestion> best = new HashMap<>();
+        for (int siteId : siteIds) {
+            FuzzyLemmaIndex index = indexes.get(siteId);
+            if (index == null) {
+                continue;
+            }
+            for (String variant : variants) {
+                int maxEdits = Math.min(searchSetting.getSpellingMaxEdits(),
+                        variant.length() < LONG_WORD_LENGTH ? 1 : 2);
+                for (FuzzyLemmaIndex.Suggestion suggestion : index.suggest(variant, maxEdits, 3)) {
+                    best.merge(suggestion.lemma(), suggestion, (a, b) -> new FuzzyLemmaIndex.Suggestion(a.lemma(),
+                            Math.min(a.distance(), b.distance()), a.frequency() + b.frequency()));
+                }
+            }
+        }
+        return best.values().stream()
+                .min(Comparator.comparingInt(FuzzyLemmaIndex.Suggestion::distance)
+                        .thenComparing(Comparator.comparingInt(FuzzyLemmaIndex.Suggestion::frequency).reversed())
+                        .thenComparing(FuzzyLemmaIndex.Suggestion::lemma))
+                .map(FuzzyLemmaIndex.Suggestion::lemma)
+                .orElse(null);
+    }
+
+    /**
+     * Строит индекс сайта заново и подменяет им прежний
+     */
+    public void rebuildSite(SiteEntity siteEntity) {
+        long start = System.nanoTime();
+        FuzzyLemmaIndex.Builder builder = new FuzzyLemmaIndex.Builder();
+        lemmaDictionary.forEachLemma(siteEntity.getId(), builder::add);
+        FuzzyLemmaIndex index = builder.build();
+        replace(siteEntity.getId(), index);
+        log.info("Fuzzy lemma index for site {} built: {} lemmas in {} ms", siteEntity.getUrl(), index.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    public void removeSite(int siteId) {
+        replace(siteId, null);
+    }
+
+    private synchronized void replace(int siteId, FuzzyLemmaIndex index) {
+        Map<Integer, FuzzyLemmaIndex> updated = new HashMap<>(sites);
+        if (index == null) {
+            updated.remove(siteId);
+        } else {
+            updated.put(siteId, index);
+        }
+        sites = Map.copyOf(updated);
+    }
+}
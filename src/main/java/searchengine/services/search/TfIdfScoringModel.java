@@ -0,0 +1,30 @@
+package searchengine.services.search;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import searchengine.services.DocumentStats.SiteStats;
+
+/**
+ * TF-IDF: (1 + ln rank) * ln(1 + N / df). Длина страницы не учитывается.
+ */
+@Component
+@ConditionalOnProperty(prefix = "search-setting", name = "scoring", havingValue = "tfidf")
+public class TfIdfScoringModel implements ScoringModel {
+
+    @Override
+    public TermScorer termScorer(int documentFrequency, SiteStats site) {
+        int pageCount = Math.max(site.pageCount(), documentFrequency);
+        float idf = (float) Math.log(1 + (double) pageCount / Math.max(documentFrequency, 1));
+        return new TermScorer() {
+            @Override
+            public float score(float rank, int pageLength) {
+                return rank <= 0 ? 0F : (1 + (float) Math.log(rank)) * idf;
+            }
+
+            @Override
+            public float maxScore(int maxRank) {
+                return maxRank <= 0 ? Float.POSITIVE_INFINITY : score(maxRank, 0);
+            }
+        };
+    }
+}
@@ -0,0 +1,98 @@
+package searchengine.services.search;
+
+import java.util.Arrays;
+
+/**
+ * Отбор k лучших страниц из потока оценок: двоичная куча с худшей страницей в корне. Пара (оценка, id)
+ * упакована в long, оценки неотрицательны, поэтому порядок битов float совпадает с порядком оценок;
+ * при равной оценке выше страница с большим id.
+ */
+public class TopPages {
+    private final long[] heap;
+    private int size;
+    private int totalCount;
+    private boolean truncated;
+
+    public TopPages(int k) {
+        heap = new long[Math.max(k, 1)];
+    }
+
+    public void offer(int pageId, float score) {
+        long key = (long) Float.floatToIntBits(Math.max(score, 0F)) << 32 | pageId;
+        if (size < heap.length) {
+            heap[size] = key;
+            siftUp(size++);
+        } else if (key > heap[0]) {
+            heap[0] = key;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return оценка, которую нужно превзойти, чтобы попасть в k лучших, или 0, пока страниц меньше k
+     */
+    public float threshold() {
+        return size < heap.length ? 0F : Float.intBitsToFloat((int) (heap[0] >>> 32));
+    }
+
+    public boolean isFull() {
+        return size == heap.length;
+    }
+
+    /**
+     * Учитывает найденные страницы в общем числе результатов, в том числе не предложенные в {@link #offer}.
+     */
+    public void addMatches(int count) {
+        totalCount += count;
+    }
+
+    /**
+     * Отмечает, что не все страницы были предложены: вычисление остановлено по сроку запроса
+     */
+    public void truncate() {
+        truncated = true;
+    }
+
+    public RankedPages toRankedPages() {
+        long[] keys = Arrays.copyOf(heap, size);
+        Arrays.sort(keys);
+        int[] pageIds = new int[size];
+        float[] ranks = new float[size];
+        for (int i = 0; i < size; i++) {
+            long key = keys[size - 1 - i];
+            pageIds[i] = (int) key;
+            ranks[i] = Float.intBitsToFloat((int) (key >>> 32));
+        }
+        return new RankedPages(pageIds, ranks, totalCount, truncated);
+    }
+
+    private void siftUp(int i) {
+        long key = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= key) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    private void siftDown(int i) {
+        long key = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (key <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = key;
+    }
+}
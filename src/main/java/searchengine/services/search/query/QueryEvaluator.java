@@ -0,0 +1,217 @@
+package searchengine.services.search.query;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import searchengine.repositories.PageTextRepository;
+import searchengine.repositories.PageTextRepository.PagePositionsRow;
+import searchengine.services.DocumentStats;
+import searchengine.services.LemmaDictionary;
+import searchengine.services.LemmaFinder;
+import searchengine.services.TextCompressor;
+import searchengine.services.interfaces.IndexStorage;
+import searchengine.services.search.CollectionStats;
+import searchengine.services.search.MaxScoreEvaluator;
+import searchengine.services.search.PagePositions;
+import searchengine.services.search.PostingCursor;
+import searchengine.services.search.PostingList;
+import searchengine.services.search.ScoringModel;
+import searchengine.services.search.TopPages;
+
+import java.util.*;
+
+/**
+ * Вычисляет план запроса на сайте и предлагает найденные страницы в {@link TopPages}.
+ * Конъюнкция лемм вычисляется {@link MaxScoreEvaluator}, остальные запросы - обходом дерева плана.
+ */
+@Component
+@RequiredArgsConstructor
+public class QueryEvaluator {
+    private final IndexStorage indexStorage;
+    private final LemmaDictionary lemmaDictionary;
+    private final DocumentStats documentStats;
+    private final ScoringModel scoringModel;
+    private final PageTextRepository pageTextRepository;
+    private final LemmaFinder lemmaFinder;
+
+    /**
+     * Страницы-кандидаты проверяются по списку леммы без его полной загрузки, если их меньше
+     * частоты леммы в PROBE_RATIO раз
+     */
+    private static final int PROBE_RATIO = 64;
+
+    /**
+     * Сколько символов может разделять соседние слова фразы
+     */
+    private static final int MAX_PHRASE_GAP = 16;
+
+    private static final int PHRASE_PAGES_CHUNK = 500;
+
+    /**
+     * Складывает частоты лемм запроса и статистику страниц сайтов поиска
+     */
+    public CollectionStats collectionStats(QueryPlan plan, List<Integer> siteIds) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String lemma : plan.getHighlightLemmas()) {
+            int frequency = 0;
+            for (int siteId : siteIds) {
+                LemmaDictionary.LemmaInfo lemmaInfo = lemmaDictionary.find(siteId, lemma);
+                frequency += lemmaInfo == null ? 0 : lemmaInfo.frequency();
+            }
+            frequencies.put(lemma, frequency);
+        }
+        int pageCount = 0;
+        long totalLength = 0;
+        for (int siteId : siteIds) {
+            DocumentStats.SiteStats siteStats = documentStats.getSite(siteId);
+            pageCount += siteStats.pageCount();
+            totalLength += siteStats.totalLength();
+        }
+        return new CollectionStats(frequencies, new DocumentStats.SiteStats(pageCount, totalLength));
+    }
+
+    /**
+     * @param stats    статистика всех сайтов поиска, по ней оцениваются страницы
+     * @param deadline System.nanoTime(), после которого конъюнкция лемм перестаёт проверять страницы
+     */
+    public void evaluate(QueryPlan plan, int siteId, CollectionStats stats, TopPages topPages, long deadline) {
+        if (plan.getConjunctiveLemmas() != null) {
+            List<QueryLemma> siteLemmas = findSiteLemmas(siteId, plan.getConjunctiveLemmas());
+            if (!siteLemmas.isEmpty()) {
+                scorePages(siteId, siteLemmas, stats, topPages, deadline);
+            }
+            return;
+        }
+        PostingList pages = plan.getRoot().evaluate(new SiteContext(siteId, stats), null);
+        for (int i = 0; i < pages.size(); i++) {
+            topPages.offer(pages.getPageId(i), pages.getRank(i));
+        }
+        topPages.addMatches(pages.size());
+    }
+
+    /**
+     * @return леммы запроса на сайте по возрастанию частоты или пустой список, если какой-то леммы на сайте нет
+     */
+    private List<QueryLemma> findSiteLemmas(int siteId, List<String> lemmas) {
+        List<QueryLemma> siteLemmas = new ArrayList<>();
+        for (String lemma : lemmas) {
+            LemmaDictionary.LemmaInfo lemmaInfo = lemmaDictionary.find(siteId, lemma);
+            if (lemmaInfo == null) {
+                return List.of();
+            }
+            siteLemmas.add(new QueryLemma(lemma, lemmaInfo.id(), lemmaInfo.frequency(), lemmaInfo.maxRank()));
+        }
+        siteLemmas.sort(Comparator.comparingInt(QueryLemma::frequency));
+        return siteLemmas;
+    }
+
+    /**
+     * Открывает курсоры по спискам страниц лемм сайта. Если список самой редкой леммы загружен в память
+     * и у неё страниц намного меньше, чем у следующей, список следующей целиком не загружается, а проверяются
+     * только страницы самой редкой. Страницы, на которых есть все леммы, оцениваются моделью релевантности
+     * и предлагаются в topPages, блоки и страницы, которые уже не могут попасть в лучшие, отсекаются
+     * {@link MaxScoreEvaluator}.
+     */
+    private void scorePages(int siteId, List<QueryLemma> siteLemmas, CollectionStats stats, TopPages topPages,
+                            long deadline) {
+        PostingCursor[] cursors = new PostingCursor[siteLemmas.size()];
+        QueryLemma rarest = siteLemmas.get(0);
+        cursors[0] = indexStorage.openPostings(siteId, rarest.id(), rarest.frequency());
+        if (cursors[0].size() == 0) {
+            return;
+        }
+        PostingList rarestPages = cursors[0].loaded();
+        int[] rarestPageIds = null;
+        for (int i = 1; i < siteLemmas.size(); i++) {
+            QueryLemma lemma = siteLemmas.get(i);
+            if (rarestPages != null && (long) rarestPages.size() * PROBE_RATIO < lemma.frequency()) {
+                rarestPageIds = rarestPageIds == null ? rarestPages.pageIds() : rarestPageIds;
+                cursors[i] = indexStorage.findPostings(siteId, lemma.id(), rarestPageIds).cursor();
+            } else {
+                cursors[i] = indexStorage.openPostings(siteId, lemma.id(), lemma.frequency());
+            }
+            if (cursors[i].size() == 0) {
+                return;
+            }
+        }
+
+        ScoringModel.TermScorer[] scorers = new ScoringModel.TermScorer[siteLemmas.size()];
+        int[] maxRanks = new int[siteLemmas.size()];
+        for (int i = 0; i < scorers.length; i++) {
+            QueryLemma lemma = siteLemmas.get(i);
+            scorers[i] = scoringModel.termScorer(stats.documentFrequency(lemma.lemma(), lemma.frequency()),
+                    stats.pages());
+            maxRanks[i] = lemma.maxRank();
+        }
+        new MaxScoreEvaluator(cursors, scorers, maxRanks).evaluate(documentStats, topPages, deadline);
+    }
+
+    /**
+     * @param maxRank наибольший rank леммы на страницах сайта, 0 - неизвестен
+     */
+    private record QueryLemma(String lemma, int id, int frequency, int maxRank) {
+    }
+
+    /**
+     * Индекс сайта для вычисления дерева плана: списки страниц лемм с оценками модели релевантности
+     */
+    private class SiteContext implements SiteIndex {
+        private final int siteId;
+        private final CollectionStats stats;
+
+        SiteContext(int siteId, CollectionStats stats) {
+            this.siteId = siteId;
+            this.stats = stats;
+        }
+
+        @Override
+        public int frequency(String lemma) {
+            LemmaDictionary.LemmaInfo lemmaInfo = lemmaDictionary.find(siteId, lemma);
+            return lemmaInfo == null ? 0 : lemmaInfo.frequency();
+        }
+
+        @Override
+        public PostingList postings(String lemma, int[] candidates) {
+            LemmaDictionary.LemmaInfo lemmaInfo = lemmaDictionary.find(siteId, lemma);
+            if (lemmaInfo == null || lemmaInfo.frequency() == 0) {
+                return PostingList.EMPTY;
+            }
+            PostingList pages = candidates != null && (long) candidates.length * PROBE_RATIO < lemmaInfo.frequency()
+                    ? indexStorage.findPostings(siteId, lemmaInfo.id(), candidates)
+                    : indexStorage.findPostings(siteId, lemmaInfo.id(), lemmaInfo.frequency());
+            ScoringModel.TermScorer scorer = scoringModel.termScorer(
+                    stats.documentFrequency(lemma, lemmaInfo.frequency()), stats.pages());
+            int[] pageIds = new int[pages.size()];
+            float[] scores = new float[pages.size()];
+            for (int i = 0; i < pages.size(); i++) {
+                pageIds[i] = pages.getPageId(i);
+                scores[i] = scorer.score(pages.getRank(i), documentStats.getLength(pageIds[i]));
+            }
+            return new PostingList(pageIds, scores, pageIds.length);
+        }
+
+        /**
+         * Позиционные индексы найденных страниц загружаются частями. Страница без позиционного индекса
+         * разбирается по сохранённому тексту, страница без текста (проиндексирована до появления page_text)
+         * считается подходящей.
+         */
+        @Override
+        public PostingList filterPhrase(PostingList pages, List<Set<String>> words) {
+            Set<Integer> rejected = new HashSet<>();
+            int[] pageIds = pages.pageIds();
+            for (int from = 0; from < pageIds.length; from += PHRASE_PAGES_CHUNK) {
+                List<Integer> chunk = new ArrayList<>();
+                for (int i = from; i < Math.min(from + PHRASE_PAGES_CHUNK, pageIds.length); i++) {
+                    chunk.add(pageIds[i]);
+                }
+                for (PagePositionsRow row : pageTextRepository.findPositions(chunk)) {
+                    PagePositions positions = row.getPositions() != null ? PagePositions.fromBytes(row.getPositions())
+                            : lemmaFinder.findPositions(TextCompressor.decompress(row.getText()));
+                    if (!positions.containsPhrase(words, MAX_PHRASE_GAP)) {
+                        rejected.add(row.getPageId());
+                    }
+                }
+            }
+            return rejected.isEmpty() ? pages : pages.filter(pageId -> !rejected.contains(pageId));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package searchengine.services.search.query;
+
+import searchengine.services.search.PostingList;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Узел плана запроса. Узел вычисляется в список найденных страниц сайта с оценкой каждой страницы.
+ * Если известны страницы-кандидаты, узел может вернуть и страницы не из них: отсекает их родитель,
+ * зато лемма может проверить только кандидатов, не загружая свой список целиком.
+ */
+public sealed interface QueryNode {
+
+    /**
+     * @return оценка числа найденных страниц по частотам лемм, по ней выбирается порядок вычисления
+     */
+    long estimate(SiteIndex index);
+
+    /**
+     * @param candidates страницы по возрастанию id, среди которых нужны результаты, или null - нужны все
+     */
+    PostingList evaluate(SiteIndex index, int[] candidates);
+
+    /**
+     * Добавляет в lemmas леммы узла, которые могут найтись на странице
+     */
+    void collectLemmas(Set<String> lemmas);
+
+    record Lemma(String lemma) implements QueryNode {
+        @Override
+        public long estimate(SiteIndex index) {
+            return index.frequency(lemma);
+        }
+
+        @Override
+        public PostingList evaluate(SiteIndex index, int[] candidates) {
+            return index.postings(lemma, candidates);
+        }
+
+        @Override
+        public void collectLemmas(Set<String> lemmas) {
+            lemmas.add(lemma);
+        }
+    }
+
+    /**
+     * Страницы со всеми required, оценка увеличивается на оценку найденных на странице optional,
+     * страницы с любым из excluded исключаются. Без required нужен хотя бы один optional.
+     */
+    record And(List<QueryNode> required, List<QueryNode> optional, List<QueryNode> excluded) implements QueryNode {
+        @Override
+        public long estimate(SiteIndex index) {
+            if (required.isEmpty()) {
+                return new Or(optional).estimate(index);
+            }
+            long estimate = Long.MAX_VALUE;
+            for (QueryNode node : required) {
+                estimate = Math.min(estimate, node.estimate(index));
+            }
+            return estimate;
+        }
+
+        /**
+         * Обязательные узлы пересекаются от самого дешёвого: каждый следующий получает найденные страницы
+         * кандидатами. Необязательные и исключённые узлы проверяют только найденные страницы.
+         */
+        @Override
+        public PostingList evaluate(SiteIndex index, int[] candidates) {
+            PostingList result;
+            if (required.isEmpty()) {
+                result = new Or(optional).evaluate(index, candidates);
+            } else {
+                result = null;
+                int[] pageIds = candidates;
+                for (QueryNode node : sortByEstimate(required, index)) {
+                    PostingList pages = node.evaluate(index, pageIds);
+                    result = result == null ? pages : result.intersect(pages);
+                    if (result.size() == 0) {
+                        return PostingList.EMPTY;
+                    }
+                    pageIds = result.pageIds();
+                }
+                for (QueryNode node : optional) {
+                    result = result.boost(node.evaluate(index, pageIds));
+                }
+            }
+            for (QueryNode node : excluded) {
+                if (result.size() == 0) {
+                    break;
+                }
+                result = result.subtract(node.evaluate(index, result.pageIds()));
+            }
+            return result;
+        }
+
+        @Override
+        public void collectLemmas(Set<String> lemmas) {
+            required.forEach(node -> node.collectLemmas(lemmas));
+            optional.forEach(node -> node.collectLemmas(lemmas));
+        }
+    }
+
+    record Or(List<QueryNode> alternatives) implements QueryNode {
+        @Override
+        public long estimate(SiteIndex index) {
+            long estimate = 0;
+            for (QueryNode node : alternatives) {
+                estimate += node.estimate(index);
+            }
+            return estimate;
+        }
+
+        @Override
+        public PostingList evaluate(SiteIndex index, int[] candidates) {
+            PostingList result = PostingList.EMPTY;
+            for (QueryNode node : alternatives) {
+                if (node.estimate(index) > 0) {
+                    result = result.union(node.evaluate(index, candidates));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void collectLemmas(Set<String> lemmas) {
+            alternatives.forEach(node -> node.collectLemmas(lemmas));
+        }
+    }
+
+    /**
+     * Слова фразы, идущие в тексте подряд. Сначала пересекаются страницы всех слов, затем на каждой
+     * найденной странице порядок слов проверяется по позиционному индексу.
+     *
+     * @param words      узлы слов фразы
+     * @param wordLemmas леммы каждого слова
+     */
+    record Phrase(List<QueryNode> words, List<Set<String>> wordLemmas) implements QueryNode {
+        @Override
+        public long estimate(SiteIndex index) {
+            return new And(words, List.of(), List.of()).estimate(index);
+        }
+
+        @Override
+        public PostingList evaluate(SiteIndex index, int[] candidates) {
+            PostingList pages = new And(words, List.of(), List.of()).evaluate(index, candidates);
+            if (candidates != null && pages.size() > 0) {
+                pages = pages.intersect(new PostingList(candidates, new float[candidates.length], candidates.length));
+            }
+            return pages.size() == 0 ? pages : index.filterPhrase(pages, wordLemmas);
+        }
+
+        @Override
+        public void collectLemmas(Set<String> lemmas) {
+            words.forEach(node -> node.collectLemmas(lemmas));
+        }
+    }
+
+    private static List<QueryNode> sortByEstimate(List<QueryNode> nodes, SiteIndex index) {
+        if (nodes.size() < 2) {
+            return nodes;
+        }
+        long[] estimates = new long[nodes.size()];
+        Integer[] order = new Integer[nodes.size()];
+        for (int i = 0; i < order.length; i++) {
+            estimates[i] = nodes.get(i).estimate(index);
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> estimates[i]));
+        return Arrays.stream(order).map(nodes::get).toList();
+    }
+}
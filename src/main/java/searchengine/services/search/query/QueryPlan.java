@@ -0,0 +1,132 @@
+package searchengine.services.search.query;
+
+import searchengine.services.LemmaFinder;
+
+import java.util.*;
+
+/**
+ * План запроса, не зависящий от сайта: дерево {@link QueryNode} над леммами. Слово запроса превращается
+ * в леммы, как и раньше требуются все леммы слова. Слова, у которых нет лемм (служебные части речи),
+ * отбрасываются. Запрос только из исключённых слов ничего не находит.
+ * <p>
+ * Запрос из одних обязательных слов - конъюнкция лемм, её поиск вычисляет с отсечением MaxScore.
+ */
+public class QueryPlan {
+    private final QueryNode.And root;
+    private final List<String> conjunctiveLemmas;
+    private final Set<String> highlightLemmas;
+
+    private QueryPlan(QueryNode.And root) {
+        this.root = root;
+        this.conjunctiveLemmas = findConjunctiveLemmas(root);
+        this.highlightLemmas = new LinkedHashSet<>();
+        root.collectLemmas(highlightLemmas);
+    }
+
+    public static QueryPlan compile(SearchQuery query, LemmaFinder lemmaFinder) {
+        List<QueryNode> required = new ArrayList<>();
+        List<QueryNode> optional = new ArrayList<>();
+        List<QueryNode> excluded = new ArrayList<>();
+        for (SearchQuery.Clause clause : query.clauses()) {
+            List<QueryNode> alternatives = new ArrayList<>();
+            for (SearchQuery.Unit unit : clause.alternatives()) {
+                QueryNode node = unit.phrase() ? compilePhrase(unit.words(), lemmaFinder)
+                        : compileWord(lemmaFinder.getLemmaSet(unit.words().get(0)));
+                if (node != null && !alternatives.contains(node)) {
+                    alternatives.add(node);
+                }
+            }
+            if (alternatives.isEmpty()) {
+                continue;
+            }
+            QueryNode node = alternatives.size() == 1 ? alternatives.get(0) : new QueryNode.Or(alternatives);
+            switch (clause.occur()) {
+                case REQUIRED -> addRequired(required, node);
+                case OPTIONAL -> optional.add(node);
+                case EXCLUDED -> excluded.add(node);
+            }
+        }
+        if (required.isEmpty() && optional.isEmpty()) {
+            excluded.clear();
+        }
+        return new QueryPlan(new QueryNode.And(List.copyOf(required), List.copyOf(optional), List.copyOf(excluded)));
+    }
+
+    public QueryNode getRoot() {
+        return root;
+    }
+
+    public boolean isEmpty() {
+        return root.required().isEmpty() && root.optional().isEmpty();
+    }
+
+    /**
+     * @return леммы запроса, если он требует только их все, иначе null
+     */
+    public List<String> getConjunctiveLemmas() {
+        return conjunctiveLemmas;
+    }
+
+    /**
+     * @return леммы, которые выделяются в сниппетах: все, кроме исключённых
+     */
+    public Set<String> getHighlightLemmas() {
+        return highlightLemmas;
+    }
+
+    /**
+     * Ключ кэша результатов: одинаковый у запросов с одинаковым планом
+     */
+    public String getKey() {
+        return conjunctiveLemmas == null ? root.toString() : new TreeSet<>(conjunctiveLemmas).toString();
+    }
+
+    private static QueryNode compileWord(Set<String> lemmas) {
+        if (lemmas.isEmpty()) {
+            return null;
+        }
+        List<QueryNode> nodes = new TreeSet<>(lemmas).stream().<QueryNode>map(QueryNode.Lemma::new).toList();
+        return nodes.size() == 1 ? nodes.get(0) : new QueryNode.And(nodes, List.of(), List.of());
+    }
+
+    private static QueryNode compilePhrase(List<String> words, LemmaFinder lemmaFinder) {
+        List<QueryNode> wordNodes = new ArrayList<>();
+        List<Set<String>> wordLemmas = new ArrayList<>();
+        for (String word : words) {
+            Set<String> lemmas = lemmaFinder.getLemmaSet(word);
+            if (!lemmas.isEmpty()) {
+                wordNodes.add(compileWord(lemmas));
+                wordLemmas.add(new TreeSet<>(lemmas));
+            }
+        }
+        if (wordNodes.size() < 2) {
+            return wordNodes.isEmpty() ? null : wordNodes.get(0);
+        }
+        return new QueryNode.Phrase(wordNodes, wordLemmas);
+    }
+
+    /**
+     * Обязательные леммы слова из нескольких лемм становятся обязательными узлами запроса
+     */
+    private static void addRequired(List<QueryNode> required, QueryNode node) {
+        if (node instanceof QueryNode.And and && and.optional().isEmpty() && and.excluded().isEmpty()) {
+            and.required().forEach(child -> addRequired(required, child));
+        } else if (!required.contains(node)) {
+            required.add(node);
+        }
+    }
+
+    private static List<String> findConjunctiveLemmas(QueryNode.And root) {
+        if (root.required().isEmpty() || !root.optional().isEmpty() || !root.excluded().isEmpty()) {
+            return null;
+        }
+        List<String> lemmas = new ArrayList<>();
+        for (QueryNode node : root.required()) {
+            if (!(node instanceof QueryNode.Lemma lemma)) {
+                return null;
+            }
+            lemmas.add(lemma.lemma());
+        }
+        return lemmas;
+    }
+}
@@ -0,0 +1,190 @@
+package searchengine.services.search.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Разобранный поисковый запрос. Синтаксис:
+ * <ul>
+ *     <li>слова через пробел должны быть на странице все;</li>
+ *     <li>{@code "слова в кавычках"} - фраза, слова идут в тексте подряд;</li>
+ *     <li>{@code кот OR кошка}, {@code кот | кошка}, {@code кот ИЛИ кошка} - любое из слов или фраз;</li>
+ *     <li>{@code -слово} - страницы со словом исключаются;</li>
+ *     <li>{@code ~слово} - слово необязательно, но поднимает страницы, на которых оно есть.</li>
+ * </ul>
+ * Модификатор ставится перед первым вариантом и относится ко всей группе OR. Незакрытая кавычка
+ * закрывается в конце запроса.
+ */
+public record SearchQuery(List<Clause> clauses) {
+
+    public enum Occur {
+        REQUIRED, OPTIONAL, EXCLUDED
+    }
+
+    /**
+     * @param alternatives варианты, объединённые OR, хотя бы один
+     */
+    public record Clause(Occur occur, List<Unit> alternatives) {
+    }
+
+    /**
+     * Слово или фраза в кавычках
+     */
+    public record Unit(List<String> words, boolean phrase) {
+    }
+
+    public static SearchQuery parse(String query) {
+        return new Parser(query).parse();
+    }
+
+    /**
+     * @param replacements слово запроса -> слово, которым его нужно заменить
+     */
+    public SearchQuery replaceWords(Map<String, String> replacements) {
+        List<Clause> replaced = new ArrayList<>();
+        for (Clause clause : clauses) {
+            List<Unit> alternatives = new ArrayList<>();
+            for (Unit unit : clause.alternatives()) {
+                alternatives.add(new Unit(unit.words().stream()
+                        .map(word -> replacements.getOrDefault(word, word)).toList(), unit.phrase()));
+            }
+            replaced.add(new Clause(clause.occur(), alternatives));
+        }
+        return new SearchQuery(replaced);
+    }
+
+    /**
+     * @return запрос в синтаксисе, который разбирает {@link #parse}
+     */
+    public String format() {
+        StringJoiner query = new StringJoiner(" ");
+        for (Clause clause : clauses) {
+            StringJoiner alternatives = new StringJoiner(" OR ");
+            for (Unit unit : clause.alternatives()) {
+                String words = String.join(" ", unit.words());
+                alternatives.add(unit.phrase() ? '"' + words + '"' : words);
+            }
+            String prefix = switch (clause.occur()) {
+                case REQUIRED -> "";
+                case OPTIONAL -> "~";
+                case EXCLUDED -> "-";
+            };
+            query.add(prefix + alternatives);
+        }
+        return query.toString();
+    }
+
+    private static class Parser {
+        private final String query;
+        private int position;
+
+        Parser(String query) {
+            this.query = query;
+        }
+
+        SearchQuery parse() {
+            List<Clause> clauses = new ArrayList<>();
+            while (skipWhitespace()) {
+                Occur occur = readOccur();
+                Unit unit = readUnit();
+                if (unit == null) {
+                    continue;
+                }
+                List<Unit> alternatives = new ArrayList<>();
+                alternatives.add(unit);
+                while (readOr()) {
+                    Unit alternative = readUnit();
+                    if (alternative != null) {
+                        alternatives.add(alternative);
+                    }
+                }
+                clauses.add(new Clause(occur, alternatives));
+            }
+            return new SearchQuery(clauses);
+        }
+
+        private Occur readOccur() {
+            char c = query.charAt(position);
+            if (position + 1 < query.length() && !Character.isWhitespace(query.charAt(position + 1))) {
+                if (c == '-') {
+                    position++;
+                    return Occur.EXCLUDED;
+                }
+                if (c == '~') {
+                    position++;
+                    return Occur.OPTIONAL;
+                }
+            }
+            return Occur.REQUIRED;
+        }
+
+        /**
+         * @return слово или фраза, null - если на этом месте оператор или пустые кавычки
+         */
+        private Unit readUnit() {
+            if (query.charAt(position) == '"') {
+                int end = query.indexOf('"', position + 1);
+                end = end < 0 ? query.length() : end;
+                String phrase = query.substring(position + 1, end).trim();
+                position = Math.min(end + 1, query.length());
+                if (phrase.isEmpty()) {
+                    return null;
+                }
+                List<String> words = Arrays.asList(phrase.split("\\s+"));
+                return new Unit(words, words.size() > 1);
+            }
+            int start = position;
+            while (position < query.length() && !isDelimiter(query.charAt(position))) {
+                position++;
+            }
+            if (position == start) {
+                position++;
+                return null;
+            }
+            String word = query.substring(start, position);
+            return isOr(word) ? null : new Unit(List.of(word), false);
+        }
+
+        /**
+         * Пропускает оператор OR, если за ним следует ещё один вариант
+         */
+        private boolean readOr() {
+            int start = position;
+            if (skipWhitespace()) {
+                int end = position;
+                while (end < query.length() && !isDelimiter(query.charAt(end))) {
+                    end++;
+                }
+                if (end == position && query.charAt(position) == '|') {
+                    end++;
+                }
+                if (end > position && isOr(query.substring(position, end))) {
+                    position = end;
+                    if (skipWhitespace()) {
+                        return true;
+                    }
+                }
+            }
+            position = start;
+            return false;
+        }
+
+        private boolean skipWhitespace() {
+            while (position < query.length() && Character.isWhitespace(query.charAt(position))) {
+                position++;
+            }
+            return position < query.length();
+        }
+
+        private static boolean isDelimiter(char c) {
+            return Character.isWhitespace(c) || c == '"' || c == '|';
+        }
+
+        private static boolean isOr(String word) {
+            return word.equals("OR") || word.equals("ИЛИ") || word.equals("|");
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package searchengine.services.search.query;
+
+import searchengine.services.search.PostingList;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Индекс одного сайта, по которому вычисляется план запроса {@link QueryNode}.
+ */
+public interface SiteIndex {
+    /**
+     * @return число страниц сайта с леммой, 0 - если леммы на сайте нет
+     */
+    int frequency(String lemma);
+
+    /**
+     * @param candidates страницы по возрастанию id, среди которых нужны результаты, или null - нужны все
+     * @return страницы с леммой и вклад леммы в оценку каждой: все такие страницы из candidates и, возможно,
+     * другие
+     */
+    PostingList postings(String lemma, int[] candidates);
+
+    /**
+     * @param words леммы каждого слова фразы
+     * @return страницы из pages, на которых слова фразы идут подряд
+     */
+    PostingList filterPhrase(PostingList pages, List<Set<String>> words);
+}
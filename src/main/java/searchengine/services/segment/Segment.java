@@ -0,0 +1,335 @@
+package searchengine.services.segment;
+
+import searchengine.services.search.PostingCursor;
+import searchengine.services.search.PostingListBuilder;
+import searchengine.services.search.ScoringModel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Неизменяемый файл сегмента, отображённый в память. Имя файла seg-min-max.seg, где min и max - диапазон
+ * поколений записей, попавших в сегмент (у слитого сегмента он включает поколения всех исходных).
+ */
+class Segment {
+    private static final Pattern FILE_NAME = Pattern.compile("seg-(\\d+)-(\\d+)\\.seg");
+
+    private final Path file;
+    private final long minGeneration;
+    private final long maxGeneration;
+    private final MappedByteBuffer buffer;
+    private final int lemmaCount;
+
+    private Segment(Path file, long minGeneration, long maxGeneration) throws IOException {
+        this.file = file;
+        this.minGeneration = minGeneration;
+        this.maxGeneration = maxGeneration;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Segment file is larger than 2 GB: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < SegmentWriter.HEADER_BYTES || buffer.getInt(0) != SegmentWriter.MAGIC) {
+            throw new IOException("Not a segment file: " + file);
+        }
+        lemmaCount = buffer.getInt(4);
+    }
+
+    static String fileName(long minGeneration, long maxGeneration) {
+        return String.format("seg-%012d-%012d.seg", minGeneration, maxGeneration);
+    }
+
+    static boolean isSegment(Path file) {
+        return FILE_NAME.matcher(file.getFileName().toString()).matches();
+    }
+
+    static Segment open(Path file) throws IOException {
+        Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+        if (!matcher.matches()) {
+            throw new IOException("Not a segment file name: " + file);
+        }
+        return new Segment(file, Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)));
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    long getMinGeneration() {
+        return minGeneration;
+    }
+
+    long getMaxGeneration() {
+        return maxGeneration;
+    }
+
+    long getSize() {
+        return buffer.capacity();
+    }
+
+    int getLemmaCount() {
+        return lemmaCount;
+    }
+
+    int getLemmaId(int entry) {
+        return buffer.getInt(entryOffset(entry));
+    }
+
+    /**
+     * @return номер записи словаря или -1, если леммы в сегменте нет
+     */
+    int findEntry(int lemmaId) {
+        int low = 0;
+        int high = lemmaCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = getLemmaId(middle);
+            if (middleId < lemmaId) {
+                low = middle + 1;
+            } else if (middleId > lemmaId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    int getPageCount(int entry) {
+        return buffer.getInt(entryOffset(entry) + 4);
+    }
+
+    /**
+     * Добавляет страницы записи словаря в builder, пропуская страницы, удалённые после записи сегмента.
+     */
+    void readPostings(int entry, Map<Integer, Long> deletions, PostingListBuilder builder) {
+        ByteBuffer view = buffer.duplicate();
+        int count = getPageCount(entry);
+        view.position(postingsOffset(entry, count));
+        int pageId = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % SegmentWriter.SKIP_INTERVAL == 0) {
+                skipImpacts(view);
+            }
+            pageId += readVarInt(view);
+            int rank = readVarInt(view);
+            if (isLive(pageId, deletions)) {
+                builder.add(pageId, rank);
+            }
+        }
+    }
+
+    /**
+     * Добавляет в builder страницы записи словаря из pageIds. Блоки списка, в которых не может быть
+     * очередной страницы, перепрыгиваются по таблице пропусков без чтения.
+     *
+     * @param pageIds id страниц по возрастанию
+     */
+    void probePostings(int entry, int[] pageIds, Map<Integer, Long> deletions, PostingListBuilder builder) {
+        PostingCursor cursor = cursor(entry, deletions);
+        for (int candidate : pageIds) {
+            int pageId = cursor.advance(candidate);
+            if (pageId == PostingCursor.NO_MORE_PAGES) {
+                return;
+            }
+            if (pageId == candidate) {
+                builder.add(pageId, cursor.rank());
+            }
+        }
+    }
+
+    /**
+     * Курсор по записи словаря, пропускающий страницы, удалённые после записи сегмента
+     */
+    PostingCursor cursor(int entry, Map<Integer, Long> deletions) {
+        return new EntryCursor(entry, deletions);
+    }
+
+    private int postingsOffset(int entry, int count) {
+        return Math.toIntExact(buffer.getLong(entryOffset(entry) + 8)) + skipTableBytes(count);
+    }
+
+    private static int skipTableBytes(int count) {
+        return SegmentWriter.blockCount(count) * SegmentWriter.SKIP_BYTES;
+    }
+
+    /**
+     * Страница не удалена после записи сегмента
+     */
+    private boolean isLive(int pageId, Map<Integer, Long> deletions) {
+        Long deletedAt = deletions.isEmpty() ? null : deletions.get(pageId);
+        return deletedAt == null || deletedAt < maxGeneration;
+    }
+
+    private static void skipImpacts(ByteBuffer view) {
+        for (int values = readVarInt(view) * 2; values > 0; values--) {
+            readVarInt(view);
+        }
+    }
+
+    private static int entryOffset(int entry) {
+        return SegmentWriter.HEADER_BYTES + entry * SegmentWriter.ENTRY_BYTES;
+    }
+
+    private static int readVarInt(ByteBuffer view) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = view.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Чтение списка страниц по блокам таблицы пропусков
+     */
+    private class EntryCursor implements PostingCursor {
+        private final Map<Integer, Long> deletions;
+        private final int count;
+        private final int skipsOffset;
+        private final int postingsOffset;
+        private final int blockCount;
+        private final ByteBuffer view;
+        /**
+         * Сколько страниц прочитано
+         */
+        private int index;
+        /**
+         * id последней прочитанной страницы, от него отсчитывается разница следующей
+         */
+        private int lastRead;
+        private int pageId = -1;
+        private int rank;
+        private int shallowBlock;
+
+        EntryCursor(int entry, Map<Integer, Long> deletions) {
+            this.deletions = deletions;
+            count = getPageCount(entry);
+            skipsOffset = Math.toIntExact(buffer.getLong(entryOffset(entry) + 8));
+            postingsOffset = skipsOffset + skipTableBytes(count);
+            blockCount = SegmentWriter.blockCount(count);
+            view = buffer.duplicate();
+            view.position(postingsOffset);
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public int position() {
+            return pageId == NO_MORE_PAGES ? count : Math.max(index - 1, 0);
+        }
+
+        @Override
+        public int pageId() {
+            return pageId;
+        }
+
+        @Override
+        public float rank() {
+            return rank;
+        }
+
+        @Override
+        public int advance(int target) {
+            if (pageId >= target) {
+                return pageId;
+            }
+            int block = blockOf(index);
+            if (block < blockCount && lastPageId(block) < target) {
+                block = findBlock(block + 1, target);
+            }
+            if (block == blockCount) {
+                return exhaust();
+            }
+            if (block * SegmentWriter.SKIP_INTERVAL > index) {
+                lastRead = lastPageId(block - 1);
+                view.position(postingsOffset + blockOffset(block));
+                index = block * SegmentWriter.SKIP_INTERVAL;
+            }
+            while (index < count) {
+                if (index % SegmentWriter.SKIP_INTERVAL == 0) {
+                    skipImpacts(view);
+                }
+                lastRead += readVarInt(view);
+                rank = readVarInt(view);
+                index++;
+                if (lastRead >= target && isLive(lastRead, deletions)) {
+                    pageId = lastRead;
+                    return pageId;
+                }
+            }
+            return exhaust();
+        }
+
+        @Override
+        public int advanceShallow(int target) {
+            shallowBlock = findBlock(shallowBlock, target);
+            return shallowBlock == blockCount ? NO_MORE_PAGES : lastPageId(shallowBlock);
+        }
+
+        @Override
+        public float blockMaxScore(ScoringModel.TermScorer scorer) {
+            if (shallowBlock == blockCount) {
+                return Float.POSITIVE_INFINITY;
+            }
+            ByteBuffer impacts = buffer.duplicate().position(postingsOffset + blockOffset(shallowBlock));
+            float maxScore = 0;
+            for (int i = readVarInt(impacts); i > 0; i--) {
+                int maxRank = readVarInt(impacts);
+                int minLength = readVarInt(impacts);
+                maxScore = Math.max(maxScore,
+                        minLength == 0 ? scorer.maxScore(maxRank) : scorer.score(maxRank, minLength));
+            }
+            return maxScore;
+        }
+
+        private int exhaust() {
+            index = count;
+            pageId = NO_MORE_PAGES;
+            return pageId;
+        }
+
+        private int blockOf(int index) {
+            return Math.min(index / SegmentWriter.SKIP_INTERVAL, blockCount);
+        }
+
+        /**
+         * @return первый блок не раньше from, последняя страница которого не меньше pageId
+         */
+        private int findBlock(int from, int pageId) {
+            int low = from;
+            int high = blockCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (lastPageId(middle) < pageId) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private int lastPageId(int block) {
+            return buffer.getInt(skipsOffset + block * SegmentWriter.SKIP_BYTES);
+        }
+
+        private int blockOffset(int block) {
+            return buffer.getInt(skipsOffset + block * SegmentWriter.SKIP_BYTES + 4);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package searchengine.services.segment;
+
+import searchengine.services.search.PostingList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Запись файла сегмента. Формат:
+ * <pre>
+ * int MAGIC, int lemmaCount
+ * lemmaCount x (int lemmaId, int pageCount, long offset) - словарь по возрастанию lemmaId
+ * по offset у каждой леммы:
+ *   blockCount x (int id последней страницы блока, int смещение блока) - пропуски
+ *   blockCount x блок:
+ *     varint impactCount, impactCount x (varint rank, varint длина страницы) - влияния блока
+ *     до SKIP_INTERVAL x (varint разница id с предыдущей страницей, varint rank)
+ * </pre>
+ * rank хранится целым числом - это количество упоминаний леммы на странице. Смещение блока отсчитывается
+ * от начала первого блока. Влияния - пары (rank, длина), не уступающие ни одной странице блока по обоим
+ * значениям сразу: по ним считается оценка сверху блока. Длина 0 - неизвестна. Если пар больше MAX_IMPACTS,
+ * остаётся одна (наибольший rank, наименьшая длина).
+ */
+class SegmentWriter implements Closeable {
+    static final int MAGIC = 0x53454731;
+    static final int HEADER_BYTES = 8;
+    static final int ENTRY_BYTES = 16;
+    static final int SKIP_INTERVAL = 128;
+    static final int SKIP_BYTES = 8;
+    static final int MAX_IMPACTS = 8;
+
+    private final FileChannel channel;
+    private final ByteBuffer dictionary;
+    private final long[] blockImpacts = new long[SKIP_INTERVAL];
+    private ByteBuffer postings = ByteBuffer.allocate(1 << 16);
+    private long position;
+    private int lastLemmaId = Integer.MIN_VALUE;
+
+    SegmentWriter(Path file, int lemmaCount) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        dictionary = ByteBuffer.allocate(HEADER_BYTES + lemmaCount * ENTRY_BYTES);
+        dictionary.putInt(MAGIC).putInt(lemmaCount);
+        position = dictionary.capacity();
+    }
+
+    /**
+     * Леммы должны добавляться по возрастанию lemmaId.
+     *
+     * @param pageLengths длина страницы в леммах по id, 0 - неизвестна
+     */
+    void add(int lemmaId, PostingList pages, IntUnaryOperator pageLengths) throws IOException {
+        if (lemmaId <= lastLemmaId) {
+            throw new IllegalArgumentException("Lemma ids must be ascending: " + lemmaId + " after " + lastLemmaId);
+        }
+        lastLemmaId = lemmaId;
+        dictionary.putInt(lemmaId).putInt(pages.size()).putLong(position);
+        ByteBuffer skips = ByteBuffer.allocate(blockCount(pages.size()) * SKIP_BYTES);
+        postings.clear();
+        int previous = 0;
+        for (int from = 0; from < pages.size(); from += SKIP_INTERVAL) {
+            int to = Math.min(from + SKIP_INTERVAL, pages.size());
+            skips.putInt(pages.getPageId(to - 1)).putInt(postings.position());
+            putImpacts(pages, from, to, pageLengths);
+            for (int i = from; i < to; i++) {
+                ensureRemaining(10);
+                putVarInt(pages.getPageId(i) - previous);
+                putVarInt(Math.round(pages.getRank(i)));
+                previous = pages.getPageId(i);
+            }
+        }
+        skips.flip();
+        while (skips.hasRemaining()) {
+            position += channel.write(skips, position);
+        }
+        postings.flip();
+        while (postings.hasRemaining()) {
+            position += channel.write(postings, position);
+        }
+        if (position > Integer.MAX_VALUE) {
+            throw new IOException("Segment is larger than 2 GB");
+        }
+    }
+
+    /**
+     * Записывает влияния блока: страницы по убыванию rank, из них те, что короче всех с большим rank.
+     */
+    private void putImpacts(PostingList pages, int from, int to, IntUnaryOperator pageLengths) {
+        int count = to - from;
+        for (int i = 0; i < count; i++) {
+            long rank = Math.round(pages.getRank(from + i));
+            // по убыванию rank, при равном rank - по возрастанию длины
+            blockImpacts[i] = -rank << 32 | pageLengths.applyAsInt(pages.getPageId(from + i)) & 0xFFFFFFFFL;
+        }
+        Arrays.sort(blockImpacts, 0, count);
+        int impacts = 0;
+        int minLength = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            int length = (int) blockImpacts[i];
+            if (length < minLength) {
+                blockImpacts[impacts++] = blockImpacts[i];
+                minLength = length;
+            }
+        }
+        ensureRemaining(2 + 10 * Math.min(impacts, MAX_IMPACTS));
+        if (impacts > MAX_IMPACTS) {
+            putVarInt(1);
+            putVarInt((int) -(blockImpacts[0] >> 32));
+            putVarInt(minLength);
+            return;
+        }
+        putVarInt(impacts);
+        for (int i = 0; i < impacts; i++) {
+            putVarInt((int) -(blockImpacts[i] >> 32));
+            putVarInt((int) blockImpacts[i]);
+        }
+    }
+
+    static int blockCount(int pageCount) {
+        return (pageCount + SKIP_INTERVAL - 1) / SKIP_INTERVAL;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (dictionary.hasRemaining()) {
+                throw new IllegalStateException("Segment dictionary is not complete");
+            }
+            dictionary.flip();
+            long offset = 0;
+            while (dictionary.hasRemaining()) {
+                offset += channel.write(dictionary, offset);
+            }
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (postings.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(postings.capacity() * 2);
+            postings.flip();
+            larger.put(postings);
+            postings = larger;
+        }
+    }
+
+    private void putVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            postings.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        postings.put((byte) value);
+    }
+}
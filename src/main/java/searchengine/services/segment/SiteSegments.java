@@ -0,0 +1,375 @@
+package searchengine.services.segment;
+
+import lombok.extern.log4j.Log4j2;
+import searchengine.repositories.IndexBatchRepository.IndexRow;
+import searchengine.services.search.PostingCursor;
+import searchengine.services.search.PostingList;
+import searchengine.services.search.PostingListBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Индекс одного сайта: каталог с неизменяемыми сегментами и журналом удалённых страниц.
+ * <p>
+ * Каждая запись (сегмент или удаление страницы) получает очередное поколение. Удаление страницы
+ * скрывает её в сегментах более ранних поколений, поэтому переиндексированная страница остаётся видна
+ * в новом сегменте. При слиянии несколько подряд идущих по поколениям сегментов сливаются в один,
+ * удалённые страницы из него выбрасываются, а удаления, которые больше не скрывают страниц ни в одном
+ * сегменте, убираются из журнала.
+ * <p>
+ * Сегмент читается одним отображением в память со смещениями int, поэтому слияние берёт только сегменты,
+ * вместе не больше заданного размера: крупный сайт хранится в нескольких больших сегментах.
+ */
+@Log4j2
+public class SiteSegments {
+    private static final String DELETIONS_FILE = "deletions.log";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int DELETION_BYTES = 12;
+    /**
+     * Наибольший размер слитого сегмента: с запасом меньше 2 ГБ, до которых сегмент отображается в память
+     */
+    public static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final Path directory;
+    private final IntUnaryOperator pageLengths;
+    private final AtomicLong generation;
+    private final Map<Integer, Long> deletions;
+    private final Object lock = new Object();
+    private final Object writeLock = new Object();
+    private final AtomicBoolean mergeScheduled = new AtomicBoolean();
+    private volatile List<Segment> segments;
+    private volatile boolean deleted;
+
+    private SiteSegments(Path directory, IntUnaryOperator pageLengths, List<Segment> segments,
+                         Map<Integer, Long> deletions, long generation) {
+        this.directory = directory;
+        this.pageLengths = pageLengths;
+        this.segments = segments;
+        this.deletions = deletions;
+        this.generation = new AtomicLong(generation);
+    }
+
+    /**
+     * @param pageLengths длина страницы в леммах по id, 0 - неизвестна; записывается во влияния блоков
+     */
+    public static SiteSegments open(Path directory, IntUnaryOperator pageLengths) throws IOException {
+        Files.createDirectories(directory);
+        List<Segment> found = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    Files.delete(file);
+                } else if (Segment.isSegment(file)) {
+                    found.add(Segment.open(file));
+                }
+            }
+        }
+        found.sort(Comparator.comparingLong(Segment::getMinGeneration)
+                .thenComparing(Comparator.comparingLong(Segment::getMaxGeneration).reversed()));
+        List<Segment> live = new ArrayList<>();
+        long lastGeneration = 0;
+        for (Segment segment : found) {
+            if (segment.getMaxGeneration() <= lastGeneration) {
+                // исходный сегмент слияния, которое не успело удалить его до остановки
+                Files.delete(segment.getFile());
+            } else {
+                live.add(segment);
+                lastGeneration = segment.getMaxGeneration();
+            }
+        }
+
+        Map<Integer, Long> deletions = new ConcurrentHashMap<>();
+        Path deletionsFile = directory.resolve(DELETIONS_FILE);
+        if (Files.exists(deletionsFile)) {
+            ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(deletionsFile));
+            while (records.remaining() >= DELETION_BYTES) {
+                int pageId = records.getInt();
+                long deletedAt = records.getLong();
+                deletions.merge(pageId, deletedAt, Math::max);
+                lastGeneration = Math.max(lastGeneration, deletedAt);
+            }
+        }
+        return new SiteSegments(directory, pageLengths, List.copyOf(live), deletions, lastGeneration);
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Записывает строки индекса новым сегментом. Записи идут по одной, чтобы сегменты появлялись
+     * в порядке поколений и слияние не могло накрыть ещё не дописанный сегмент.
+     */
+    public void write(List<IndexRow> rows) throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            writeSegment(rows);
+        }
+    }
+
+    private void writeSegment(List<IndexRow> rows) throws IOException {
+        List<IndexRow> sorted = new ArrayList<>(rows);
+        sorted.sort(Comparator.comparingInt(IndexRow::lemmaId).thenComparingInt(IndexRow::pageId));
+        int lemmaCount = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            if (i == 0 || sorted.get(i).lemmaId() != sorted.get(i - 1).lemmaId()) {
+                lemmaCount++;
+            }
+        }
+
+        long segmentGeneration;
+        synchronized (lock) {
+            segmentGeneration = generation.incrementAndGet();
+        }
+        Path file = directory.resolve(Segment.fileName(segmentGeneration, segmentGeneration));
+        Path temp = directory.resolve(file.getFileName() + TEMP_SUFFIX);
+        try (SegmentWriter writer = new SegmentWriter(temp, lemmaCount)) {
+            int from = 0;
+            while (from < sorted.size()) {
+                int lemmaId = sorted.get(from).lemmaId();
+                PostingListBuilder builder = new PostingListBuilder(16);
+                int to = from;
+                for (; to < sorted.size() && sorted.get(to).lemmaId() == lemmaId; to++) {
+                    builder.add(sorted.get(to).pageId(), sorted.get(to).rank());
+                }
+                writer.add(lemmaId, builder.build(), pageLengths);
+                from = to;
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        Segment segment = Segment.open(file);
+        synchronized (lock) {
+            List<Segment> updated = new ArrayList<>(segments);
+            updated.add(segment);
+            updated.sort(Comparator.comparingLong(Segment::getMaxGeneration));
+            segments = List.copyOf(updated);
+        }
+    }
+
+    public void deletePage(int pageId) throws IOException {
+        deletePages(List.of(pageId));
+    }
+
+    /**
+     * Удаляет страницы одной дописанной в журнал записью с общим поколением.
+     */
+    public void deletePages(Collection<Integer> pageIds) throws IOException {
+        if (pageIds.isEmpty()) {
+            return;
+        }
+        synchronized (lock) {
+            long deletedAt = generation.incrementAndGet();
+            ByteBuffer records = ByteBuffer.allocate(pageIds.size() * DELETION_BYTES);
+            pageIds.forEach(pageId -> records.putInt(pageId).putLong(deletedAt));
+            Files.write(directory.resolve(DELETIONS_FILE), records.array(),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            pageIds.forEach(pageId -> deletions.put(pageId, deletedAt));
+        }
+    }
+
+    public PostingList findPostings(int lemmaId, int expectedSize) {
+        PostingListBuilder builder = new PostingListBuilder(expectedSize);
+        for (Segment segment : segments) {
+            int entry = segment.findEntry(lemmaId);
+            if (entry >= 0) {
+                segment.readPostings(entry, deletions, builder);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Курсор по спискам леммы во всех сегментах: страницы читаются по мере перехода, ненужные блоки
+     * перепрыгиваются по таблицам пропусков.
+     */
+    public PostingCursor openPostings(int lemmaId) {
+        List<PostingCursor> cursors = new ArrayList<>();
+        for (Segment segment : segments) {
+            int entry = segment.findEntry(lemmaId);
+            if (entry >= 0) {
+                cursors.add(segment.cursor(entry, deletions));
+            }
+        }
+        if (cursors.isEmpty()) {
+            return PostingList.EMPTY.cursor();
+        }
+        return cursors.size() == 1 ? cursors.get(0) : new UnionCursor(cursors.toArray(PostingCursor[]::new));
+    }
+
+    /**
+     * Проверяет страницы по спискам сегментов, не читая их целиком.
+     *
+     * @param pageIds id страниц по возрастанию
+     */
+    public PostingList findPostings(int lemmaId, int[] pageIds) {
+        PostingListBuilder builder = new PostingListBuilder(pageIds.length);
+        for (Segment segment : segments) {
+            int entry = segment.findEntry(lemmaId);
+            if (entry >= 0) {
+                segment.probePostings(entry, pageIds, deletions, builder);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return true, если слияние ещё не запланировано и его нужно запланировать
+     */
+    public boolean scheduleMerge() {
+        return mergeScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Сливает в один самую длинную цепочку подряд идущих сегментов, размер которых вместе не больше
+     * maxBytes. Сегменты, записанные во время слияния, в него не попадают.
+     *
+     * @param maxBytes наибольший размер слитого сегмента, не больше {@link #MAX_SEGMENT_BYTES}
+     */
+    public void merge(long maxBytes) throws IOException {
+        try {
+            List<Segment> current;
+            Map<Integer, Long> appliedDeletions;
+            synchronized (lock) {
+                current = segments;
+                appliedDeletions = new HashMap<>(deletions);
+            }
+            List<Segment> inputs = selectMerge(current, Math.min(maxBytes, MAX_SEGMENT_BYTES));
+            if (inputs.size() < 2 || deleted) {
+                return;
+            }
+            long minGeneration = inputs.get(0).getMinGeneration();
+            long maxGeneration = inputs.get(inputs.size() - 1).getMaxGeneration();
+            Path file = directory.resolve(Segment.fileName(minGeneration, maxGeneration));
+            Path temp = directory.resolve(file.getFileName() + TEMP_SUFFIX);
+            int[] lemmaIds = collectLemmaIds(inputs);
+            int[] cursors = new int[inputs.size()];
+            try (SegmentWriter writer = new SegmentWriter(temp, lemmaIds.length)) {
+                for (int lemmaId : lemmaIds) {
+                    PostingListBuilder builder = new PostingListBuilder(16);
+                    for (int i = 0; i < inputs.size(); i++) {
+                        Segment segment = inputs.get(i);
+                        if (cursors[i] < segment.getLemmaCount() && segment.getLemmaId(cursors[i]) == lemmaId) {
+                            segment.readPostings(cursors[i]++, appliedDeletions, builder);
+                        }
+                    }
+                    writer.add(lemmaId, builder.build(), pageLengths);
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            Segment merged = Segment.open(file);
+
+            synchronized (lock) {
+                List<Segment> updated = new ArrayList<>(segments);
+                updated.removeAll(inputs);
+                updated.add(merged);
+                updated.sort(Comparator.comparingLong(Segment::getMaxGeneration));
+                segments = List.copyOf(updated);
+                // удаление скрывает страницы только в сегментах поколений раньше его, а в слитом уже применено
+                long applied = updated.get(0).getMaxGeneration();
+                deletions.values().removeIf(deletedAt -> deletedAt <= applied);
+                rewriteDeletions();
+            }
+            for (Segment input : inputs) {
+                Files.deleteIfExists(input.getFile());
+            }
+            log.info("Merged {} segments into {}", inputs.size(), file);
+        } finally {
+            mergeScheduled.set(false);
+        }
+    }
+
+    /**
+     * Удаляет каталог сайта. Отображённые в память файлы остаются доступны уже начатым поискам.
+     */
+    public void delete() throws IOException {
+        synchronized (lock) {
+            deleted = true;
+            segments = List.of();
+            deletions.clear();
+        }
+        deleteDirectory(directory);
+    }
+
+    public static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    private void rewriteDeletions() throws IOException {
+        ByteBuffer records = ByteBuffer.allocate(deletions.size() * DELETION_BYTES);
+        deletions.forEach((pageId, deletedAt) -> records.putInt(pageId).putLong(deletedAt));
+        Path file = directory.resolve(DELETIONS_FILE);
+        Path temp = directory.resolve(DELETIONS_FILE + TEMP_SUFFIX);
+        Files.write(temp, records.array());
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @param segments сегменты по возрастанию поколений
+     * @return самая длинная цепочка подряд идущих сегментов размером вместе не больше maxBytes,
+     * из равных по длине - самая маленькая
+     */
+    private static List<Segment> selectMerge(List<Segment> segments, long maxBytes) {
+        int bestFrom = 0;
+        int bestTo = 0;
+        long bestBytes = 0;
+        for (int from = 0; from < segments.size(); from++) {
+            long bytes = 0;
+            for (int to = from; to < segments.size(); to++) {
+                bytes += segments.get(to).getSize();
+                if (bytes > maxBytes) {
+                    break;
+                }
+                int length = to + 1 - from;
+                if (length > bestTo - bestFrom || length == bestTo - bestFrom && bytes < bestBytes) {
+                    bestFrom = from;
+                    bestTo = to + 1;
+                    bestBytes = bytes;
+                }
+            }
+        }
+        return segments.subList(bestFrom, bestTo);
+    }
+
+    private static int[] collectLemmaIds(List<Segment> segments) {
+        int total = 0;
+        for (Segment segment : segments) {
+            total += segment.getLemmaCount();
+        }
+        int[] lemmaIds = new int[total];
+        int count = 0;
+        for (Segment segment : segments) {
+            for (int entry = 0; entry < segment.getLemmaCount(); entry++) {
+                lemmaIds[count++] = segment.getLemmaId(entry);
+            }
+        }
+        Arrays.sort(lemmaIds);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || lemmaIds[unique - 1] != lemmaIds[i]) {
+                lemmaIds[unique++] = lemmaIds[i];
+            }
+        }
+        return Arrays.copyOf(lemmaIds, unique);
+    }
+}
@@ -0,0 +1,93 @@
+package searchengine.services.segment;
+
+import searchengine.services.search.PostingCursor;
+import searchengine.services.search.ScoringModel;
+
+/**
+ * Курсор по спискам одной леммы в нескольких сегментах. Переписанная страница жива только в последнем
+ * сегменте, где она записана, поэтому списки объединяются без сложения rank.
+ */
+class UnionCursor implements PostingCursor {
+    private final PostingCursor[] cursors;
+    private final int size;
+    private final int[] blockEnds;
+    private PostingCursor current;
+    private int pageId = -1;
+
+    UnionCursor(PostingCursor[] cursors) {
+        this.cursors = cursors;
+        int total = 0;
+        for (PostingCursor cursor : cursors) {
+            total += cursor.size();
+        }
+        size = total;
+        blockEnds = new int[cursors.length];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int position() {
+        int position = 0;
+        for (PostingCursor cursor : cursors) {
+            position += cursor.position();
+        }
+        return position;
+    }
+
+    @Override
+    public int pageId() {
+        return pageId;
+    }
+
+    @Override
+    public float rank() {
+        return current.rank();
+    }
+
+    @Override
+    public int advance(int target) {
+        if (pageId >= target) {
+            return pageId;
+        }
+        pageId = NO_MORE_PAGES;
+        for (PostingCursor cursor : cursors) {
+            int next = cursor.advance(target);
+            if (next < pageId) {
+                pageId = next;
+                current = cursor;
+            }
+        }
+        return pageId;
+    }
+
+    /**
+     * Блок объединения кончается на ближайшей последней странице блоков сегментов.
+     */
+    @Override
+    public int advanceShallow(int target) {
+        int last = NO_MORE_PAGES;
+        for (int i = 0; i < cursors.length; i++) {
+            blockEnds[i] = cursors[i].advanceShallow(target);
+            last = Math.min(last, blockEnds[i]);
+        }
+        return last;
+    }
+
+    /**
+     * Оценка блока объединения - наибольшая из оценок блоков сегментов, в которых ещё есть страницы
+     */
+    @Override
+    public float blockMaxScore(ScoringModel.TermScorer scorer) {
+        float maxScore = 0;
+        for (int i = 0; i < cursors.length; i++) {
+            if (blockEnds[i] != NO_MORE_PAGES) {
+                maxScore = Math.max(maxScore, cursors[i].blockMaxScore(scorer));
+            }
+        }
+        return maxScore;
+    }
+}
@@ -0,0 +1,356 @@
+package searchengine.services.shard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+import searchengine.config.SearchSetting;
+import searchengine.config.ShardSetting;
+import searchengine.dto.search.DetailedSearchItem;
+import searchengine.dto.search.ErrorSearchResponse;
+import searchengine.dto.search.SearchResponse;
+import searchengine.dto.search.ShardHitsResponse;
+import searchengine.dto.search.ShardPagesRequest;
+import searchengine.dto.search.ShardSearchRequest;
+import searchengine.dto.search.ShardStatsResponse;
+import searchengine.dto.search.SuccessResponse;
+import searchengine.dto.statistics.DetailedStatisticsItem;
+import searchengine.dto.statistics.StatisticsData;
+import searchengine.dto.statistics.StatisticsResponse;
+import searchengine.dto.statistics.TotalStatistics;
+import searchengine.services.search.SearchExecutor;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Режим координатора: поиск и статистика рассылаются шардам - узлам searchengine, каждый из которых
+ * индексирует свою часть сайтов в свою базу, - и их ответы сливаются.
+ * Поиск выполняется в три фазы: сначала шарды возвращают статистику по леммам запроса, координатор её
+ * складывает, затем шарды оценивают страницы по общей статистике и возвращают id и оценки лучших
+ * offset + limit, которые сливаются по оценке, и наконец шарды строят сниппеты только для страниц
+ * с offset по offset + limit. Шард, не ответивший к сроку запроса, пропускается, а ответ помечается неполным.
+ * <p>
+ * Вызовы шардов идут в собственном ограниченном пуле: когда его очередь заполнена, вызов сразу считается
+ * неудавшимся, а не выполняется в потоке запроса. Таймауты соединения и чтения каждого вызова не больше
+ * времени, оставшегося до срока запроса, поэтому поток пула не остаётся занятым после срока.
+ */
+@Component
+@Log4j2
+public class ShardCoordinator {
+    private static final ThreadLocal<Long> CALL_DEADLINE = new ThreadLocal<>();
+
+    private final ShardSetting shardSetting;
+    private final SearchSetting searchSetting;
+    private final SearchExecutor searchExecutor;
+    private final RestTemplate restTemplate;
+    private final ExecutorService shardExecutor;
+
+    public ShardCoordinator(ShardSetting shardSetting, SearchSetting searchSetting, SearchExecutor searchExecutor,
+                            RestTemplateBuilder restTemplateBuilder, MeterRegistry meterRegistry) {
+        this.shardSetting = shardSetting;
+        this.searchSetting = searchSetting;
+        this.searchExecutor = searchExecutor;
+        this.restTemplate = restTemplateBuilder.requestFactory(DeadlineRequestFactory::new).build();
+        int threads = shardSetting.getThreads() > 0
+                ? shardSetting.getThreads() : Math.max(shardSetting.getShards().size() * 4, 1);
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(shardSetting.getQueueCapacity()), r -> {
+            Thread thread = new Thread(r, "shard-call-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        shardExecutor = ExecutorServiceMetrics.monitor(meterRegistry, pool, "shard.call");
+    }
+
+    @PreDestroy
+    public void stop() {
+        shardExecutor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return !shardSetting.getShards().isEmpty();
+    }
+
+    /**
+     * @param timeout срок выполнения запроса в мс, 0 - searchTimeout из настроек
+     * @throws RejectedExecutionException если очередь поисковых запросов заполнена
+     */
+    public CompletableFuture<SearchResponse> search(String query, String site, int offset, int limit, long timeout) {
+        long effectiveTimeout = timeout > 0 ? Math.min(timeout, searchSetting.getMaxSearchTimeout())
+                : searchSetting.getSearchTimeout();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(effectiveTimeout);
+        return searchExecutor.supply(() -> searchBefore(query, site, offset, limit, deadline));
+    }
+
+    private SearchResponse searchBefore(String query, String site, int offset, int limit, long deadline) {
+        int window = searchSetting.getMaxResultWindow();
+        int depth = (int) Math.min((long) Math.max(offset, 0) + Math.max(limit, 0), window);
+        ShardSearchRequest request = new ShardSearchRequest();
+        request.setQuery(query);
+        request.setSite(site);
+        request.setLimit(depth);
+        List<String> shards = shardSetting.getShards();
+        List<ShardStatsResponse> stats = scatter(shards,
+                shard -> restTemplate.postForObject(shard + "/api/shard/stats", request, ShardStatsResponse.class),
+                deadline);
+
+        List<String> liveShards = new ArrayList<>();
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            ShardStatsResponse shardStats = stats.get(i);
+            if (shardStats == null) {
+                continue;
+            }
+            liveShards.add(shards.get(i));
+            request.setPageCount(request.getPageCount() + shardStats.getPageCount());
+            request.setTotalLength(request.getTotalLength() + shardStats.getTotalLength());
+            if (shardStats.getDocumentFrequencies() != null) {
+                shardStats.getDocumentFrequencies().forEach((lemma, frequency) ->
+                        frequencies.merge(lemma, frequency, Integer::sum));
+            }
+        }
+        request.setDocumentFrequencies(frequencies);
+        request.setTimeout(remainingMillis(deadline));
+        List<ShardHitsResponse> responses = scatter(liveShards,
+                shard -> restTemplate.postForObject(shard + "/api/shard/search", request, ShardHitsResponse.class),
+                deadline);
+
+        List<String> hitShards = new ArrayList<>();
+        List<ShardHitsResponse> shardHits = new ArrayList<>();
+        int count = 0;
+        boolean partial = liveShards.size() < shards.size();
+        for (int i = 0; i < responses.size(); i++) {
+            ShardHitsResponse response = responses.get(i);
+            if (response == null || response.getPageIds() == null || response.getScores() == null) {
+                partial = true;
+                continue;
+            }
+            hitShards.add(liveShards.get(i));
+            shardHits.add(response);
+            count += response.getCount();
+            partial |= Boolean.TRUE.equals(response.getPartial());
+        }
+        if (shardHits.isEmpty()) {
+            return unavailable(query);
+        }
+
+        count = Math.min(count, window);
+        List<Hit> merged = merge(shardHits, depth);
+        if (merged.size() <= offset) {
+            log.info("No pages found on {} shards", shardHits.size());
+            ErrorSearchResponse response = new ErrorSearchResponse();
+            response.setError("По вашему запросу ничего не найдено.");
+            response.setResult(false);
+            return response;
+        }
+        SuccessResponse pages = fetchPages(query, hitShards, merged.subList(offset, merged.size()), deadline);
+        if (pages == null) {
+            return unavailable(query);
+        }
+        List<DetailedSearchItem> data = pages.getData();
+        partial |= Boolean.TRUE.equals(pages.getPartial());
+        double maxRelevance = merged.get(0).score();
+        data.forEach(item -> item.setRelevance(maxRelevance > 0 ? item.getRelevance() / maxRelevance : 0));
+        log.info("Found {} pages on {} shards, showing {} ({})", count, shardHits.size(), data.size(), query);
+        SuccessResponse response = new SuccessResponse();
+        response.setResult(true);
+        response.setData(data);
+        response.setCount(count);
+        response.setPartial(partial ? Boolean.TRUE : null);
+        return response;
+    }
+
+    /**
+     * Запрашивает у шардов результаты для страниц выдачи. Сниппеты строятся в пределах срока запроса, но
+     * адреса и заголовки нужны и после него, поэтому на эту фазу отводится не меньше snippetTimeout.
+     *
+     * @return результаты по убыванию оценки, неполный, если ответили не все шарды, или null, если не ответил
+     * ни один
+     */
+    private SuccessResponse fetchPages(String query, List<String> shards, List<Hit> page, long deadline) {
+        Map<String, List<Hit>> shardPages = new LinkedHashMap<>();
+        for (Hit hit : page) {
+            shardPages.computeIfAbsent(shards.get(hit.shard()), shard -> new ArrayList<>()).add(hit);
+        }
+        Map<String, ShardPagesRequest> requests = new HashMap<>();
+        shardPages.forEach((shard, hits) -> {
+            ShardPagesRequest request = new ShardPagesRequest();
+            request.setQuery(query);
+            request.setPageIds(hits.stream().mapToInt(Hit::pageId).toArray());
+            float[] scores = new float[hits.size()];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = hits.get(i).score();
+            }
+            request.setScores(scores);
+            request.setTimeout(remainingMillis(deadline));
+            requests.put(shard, request);
+        });
+        long pagesDeadline = Math.max(deadline - System.nanoTime(),
+                TimeUnit.MILLISECONDS.toNanos(searchSetting.getSnippetTimeout())) + System.nanoTime();
+        List<String> pageShards = new ArrayList<>(shardPages.keySet());
+        List<SuccessResponse> responses = scatter(pageShards, shard -> restTemplate.postForObject(
+                shard + "/api/shard/pages", requests.get(shard), SuccessResponse.class), pagesDeadline);
+
+        List<DetailedSearchItem> items = new ArrayList<>();
+        boolean answered = false;
+        boolean partial = false;
+        for (SuccessResponse response : responses) {
+            if (response == null || response.getData() == null) {
+                partial = true;
+                continue;
+            }
+            answered = true;
+            items.addAll(response.getData());
+            partial |= Boolean.TRUE.equals(response.getPartial());
+        }
+        if (!answered) {
+            return null;
+        }
+        items.sort(Comparator.comparingDouble(DetailedSearchItem::getRelevance).reversed());
+        SuccessResponse pages = new SuccessResponse();
+        pages.setResult(true);
+        pages.setData(items);
+        pages.setCount(items.size());
+        pages.setPartial(partial ? Boolean.TRUE : null);
+        return pages;
+    }
+
+    private static SearchResponse unavailable(String query) {
+        log.warn("No shard answered the search ({})", query);
+        ErrorSearchResponse response = new ErrorSearchResponse();
+        response.setError("Поисковый индекс недоступен, повторите запрос позже");
+        response.setResult(false);
+        return response;
+    }
+
+    private static long remainingMillis(long deadline) {
+        return Math.max(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 1);
+    }
+
+    /**
+     * Страница выдачи шарда с номером shard в списке ответивших
+     */
+    private record Hit(int shard, int pageId, float score) {
+    }
+
+    /**
+     * Слияние отсортированных по оценке списков шардов в k лучших: куча с текущим элементом каждого списка
+     */
+    private static List<Hit> merge(List<ShardHitsResponse> lists, int k) {
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> Float.compare(
+                lists.get(b[0]).getScores()[b[1]], lists.get(a[0]).getScores()[a[1]]));
+        for (int i = 0; i < lists.size(); i++) {
+            if (lists.get(i).getPageIds().length > 0) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+        List<Hit> merged = new ArrayList<>();
+        while (!heads.isEmpty() && merged.size() < k) {
+            int[] head = heads.poll();
+            ShardHitsResponse list = lists.get(head[0]);
+            merged.add(new Hit(head[0], list.getPageIds()[head[1]], list.getScores()[head[1]]));
+            if (++head[1] < list.getPageIds().length) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Статистика шардов: общие числа складываются, списки сайтов объединяются.
+     * Шарды, не ответившие за statisticsTimeout, пропускаются.
+     */
+    public StatisticsResponse getStatistics() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shardSetting.getStatisticsTimeout());
+        List<StatisticsResponse> responses = scatter(shardSetting.getShards(),
+                shard -> restTemplate.getForObject(shard + "/api/shard/statistics", StatisticsResponse.class),
+                deadline);
+        TotalStatistics total = new TotalStatistics();
+        List<DetailedStatisticsItem> detailed = new ArrayList<>();
+        boolean result = false;
+        for (StatisticsResponse response : responses) {
+            if (response == null || !response.isResult() || response.getStatistics() == null) {
+                continue;
+            }
+            result = true;
+            TotalStatistics shardTotal = response.getStatistics().getTotal();
+            total.setSites(total.getSites() + shardTotal.getSites());
+            total.setPages(total.getPages() + shardTotal.getPages());
+            total.setLemmas(total.getLemmas() + shardTotal.getLemmas());
+            total.setIndexing(total.isIndexing() || shardTotal.isIndexing());
+            detailed.addAll(response.getStatistics().getDetailed());
+        }
+        StatisticsData data = new StatisticsData();
+        data.setTotal(total);
+        data.setDetailed(detailed);
+        StatisticsResponse response = new StatisticsResponse();
+        response.setStatistics(data);
+        response.setResult(result);
+        return response;
+    }
+
+    /**
+     * Вызывает шарды параллельно в пуле вызовов шардов
+     *
+     * @return ответы в порядке шардов, null - шард не ответил к сроку, ответил ошибкой или пул был заполнен
+     */
+    private <T> List<T> scatter(List<String> shards, Function<String, T> call, long deadline) {
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        for (String shard : shards) {
+            CompletableFuture<T> future;
+            try {
+                future = CompletableFuture.supplyAsync(() -> {
+                    CALL_DEADLINE.set(deadline);
+                    try {
+                        return call.apply(shard);
+                    } finally {
+                        CALL_DEADLINE.remove();
+                    }
+                }, shardExecutor);
+            } catch (RejectedExecutionException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            futures.add(future);
+        }
+        List<T> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            T result = null;
+            try {
+                result = futures.get(i).get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                futures.get(i).cancel(true);
+                log.warn("Shard {} timed out", shards.get(i));
+            } catch (ExecutionException e) {
+                log.warn("Shard {} failed: {}", shards.get(i), e.getCause().toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Соединения с таймаутами из настроек, урезанными до времени, оставшегося до срока текущего вызова шарда
+     */
+    private class DeadlineRequestFactory extends SimpleClientHttpRequestFactory {
+        @Override
+        protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+            super.prepareConnection(connection, httpMethod);
+            Long deadline = CALL_DEADLINE.get();
+            long remaining = deadline == null ? Long.MAX_VALUE : remainingMillis(deadline);
+            connection.setConnectTimeout((int) Math.min(shardSetting.getConnectTimeout(), remaining));
+            connection.setReadTimeout((int) Math.min(shardSetting.getReadTimeout(), remaining));
+        }
+    }
+}